@@ -5,21 +5,24 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+/**
+ * Results of the policies on each instance. Results can be added concurrently; instances are listed in increasing
+ * order whatever the order in which they were added.
+ */
 public class Results {
     private final Map<Integer, Map<String, Double>> resultsPerInstance;
     private final Set<String> policies;
 
     public Results() {
-        this.resultsPerInstance = new HashMap<>();
-        this.policies = new HashSet<>();
+        this.resultsPerInstance = new ConcurrentSkipListMap<>();
+        this.policies = ConcurrentHashMap.newKeySet();
     }
 
     public void addResult(int instance, String policy, double result) {
-        if (!resultsPerInstance.containsKey(instance)) {
-            resultsPerInstance.put(instance, new HashMap<>());
-        }
-        resultsPerInstance.get(instance).put(policy, result);
+        resultsPerInstance.computeIfAbsent(instance, i -> new ConcurrentHashMap<>()).put(policy, result);
         policies.add(policy);
     }
 
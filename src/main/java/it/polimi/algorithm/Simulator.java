@@ -1,5 +1,6 @@
 package it.polimi.algorithm;
 
+import it.polimi.algorithm.core.AnytimePolicy;
 import it.polimi.algorithm.core.InformationSpace;
 import it.polimi.algorithm.core.Policy;
 import it.polimi.algorithm.core.RewardFunction;
@@ -8,6 +9,9 @@ import it.polimi.algorithm.domain.Action;
 import it.polimi.algorithm.domain.Information;
 import it.polimi.algorithm.domain.State;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Simulator {
     private final Policy policy;
     private final RewardFunction rewardFunction;
@@ -23,21 +27,47 @@ public class Simulator {
     }
 
     private State bestState;
+    private long decisionBudget;
+    private final List<Boolean> deadlineHits = new ArrayList<>();
 
     public State getBestState() {
         return bestState;
     }
 
+    /**
+     * Sets the time allowed for each decision, in nanoseconds. Anytime policies receive the corresponding deadline;
+     * for every epoch the simulator records whether the decision was returned within the budget. Zero disables it.
+     */
+    public void setDecisionBudget(long decisionBudget) {
+        this.decisionBudget = decisionBudget;
+    }
+
+    /**
+     * Per-epoch outcome of the last simulation: true if the decision met the budget.
+     */
+    public List<Boolean> getDeadlineHits() {
+        return deadlineHits;
+    }
+
+    public int getNumDeadlineMisses() {
+        int misses = 0;
+        for (boolean hit : deadlineHits)
+            if (!hit)
+                misses++;
+        return misses;
+    }
+
     public double simulate(State initial, int instanceId) {
         State state = initial;
         int epoch = 0;
         double totalReward = 0;
         double start = System.nanoTime();
+        deadlineHits.clear();
         while (!state.isAbsorbing()) {
             epoch += 1;
 
             // select action according to policy
-            Action action = policy.chooseAction(state);
+            Action action = chooseAction(state);
 
             // no action available
             if (action == null)
@@ -67,4 +97,18 @@ public class Simulator {
         this.bestState = state;
         return totalReward;
     }
+
+    private Action chooseAction(State state) {
+        if (decisionBudget <= 0)
+            return policy.chooseAction(state);
+        long decisionStart = System.nanoTime();
+        long deadline = decisionStart + decisionBudget;
+        Action action;
+        if (policy instanceof AnytimePolicy)
+            action = ((AnytimePolicy) policy).chooseAction(state, deadline);
+        else
+            action = policy.chooseAction(state);
+        deadlineHits.add(System.nanoTime() - decisionStart <= decisionBudget);
+        return action;
+    }
 }
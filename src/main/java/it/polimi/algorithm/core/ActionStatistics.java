@@ -0,0 +1,49 @@
+package it.polimi.algorithm.core;
+
+/**
+ * Running mean and variance (Welford) of the rollout values of a candidate action.
+ */
+public class ActionStatistics {
+    private final double immediateReward;
+    private int samples;
+    private double mean;
+    private double squares;
+
+    public ActionStatistics(double immediateReward) {
+        this.immediateReward = immediateReward;
+    }
+
+    public void add(double value) {
+        samples++;
+        double delta = value - mean;
+        mean += delta / samples;
+        squares += delta * (value - mean);
+    }
+
+    public double getImmediateReward() {
+        return immediateReward;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getVariance() {
+        return samples > 1 ? squares / (samples - 1) : Double.POSITIVE_INFINITY;
+    }
+
+    public double getStandardError() {
+        return Math.sqrt(getVariance() / samples);
+    }
+
+    /**
+     * Immediate reward plus the estimated future reward.
+     */
+    public double getValue() {
+        return immediateReward + mean;
+    }
+}
@@ -0,0 +1,12 @@
+package it.polimi.algorithm.core;
+
+import it.polimi.algorithm.domain.Action;
+import it.polimi.algorithm.domain.State;
+
+/**
+ * A policy that can be interrupted: it returns the best action found so far once the deadline, expressed in
+ * System.nanoTime() units, has passed.
+ */
+public interface AnytimePolicy extends Policy {
+    Action chooseAction(State state, long deadline);
+}
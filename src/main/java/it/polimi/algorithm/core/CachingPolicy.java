@@ -0,0 +1,100 @@
+package it.polimi.algorithm.core;
+
+import it.polimi.algorithm.domain.Action;
+import it.polimi.algorithm.domain.State;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Transposition table in front of a deterministic policy: the actions chosen are cached by a hash of the state, so a
+ * state reached again, by another sample path or after another root action, costs a lookup. The table keeps at most
+ * capacity entries, split into stripes that are locked and evicted, least recently used first, independently, so
+ * that rollouts on different threads rarely wait for each other.
+ * <p>
+ * The key function must be a hash of everything the policy's decision depends on. Different states can still share
+ * a key, so a cached action is only returned if the validity check accepts it for the state at hand, null actions
+ * included; otherwise the policy is asked again and its action replaces the cached one.
+ */
+public class CachingPolicy implements Policy {
+
+    private static final int MAX_STRIPES = 16;
+    // stands for a null action in the table
+    private static final Action NO_ACTION = new Action() {
+    };
+
+    private final Policy policy;
+    private final ToLongFunction<State> key;
+    private final BiPredicate<State, Action> isValid;
+    private final Stripe[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachingPolicy(Policy policy, ToLongFunction<State> key, BiPredicate<State, Action> isValid, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive");
+        this.policy = policy;
+        this.key = key;
+        this.isValid = isValid;
+        int numStripes = Math.min(MAX_STRIPES, Integer.highestOneBit(capacity));
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++)
+            stripes[i] = new Stripe(Math.max(1, capacity / numStripes));
+    }
+
+    @Override
+    public Action chooseAction(State state) {
+        long k = key.applyAsLong(state);
+        Stripe stripe = stripes[(int) (k ^ (k >>> 32)) & (stripes.length - 1)];
+        Action action;
+        synchronized (stripe) {
+            action = stripe.get(k);
+        }
+        if (action != null) {
+            Action cached = action == NO_ACTION ? null : action;
+            // another state with the same key
+            if (isValid.test(state, cached)) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        action = policy.chooseAction(state);
+        synchronized (stripe) {
+            stripe.put(k, action == null ? NO_ACTION : action);
+        }
+        return action;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String getName() {
+        return policy.getName();
+    }
+
+    private static final class Stripe extends LinkedHashMap<Long, Action> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Action> eldest) {
+            return size() > capacity;
+        }
+    }
+}
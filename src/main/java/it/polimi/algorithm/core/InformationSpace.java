@@ -5,4 +5,6 @@ import it.polimi.algorithm.domain.State;
 
 public interface InformationSpace {
     Information getInformation(State state);
+
+    InformationSpace clone();
 }
@@ -2,6 +2,16 @@ package it.polimi.algorithm.core;
 
 import it.polimi.algorithm.domain.State;
 
+import java.util.Random;
+
 public interface InformationSpaceFactory {
     InformationSpace build(State s);
+
+    /**
+     * Builds an information space drawing from the given random stream instead of the factory's own one, so that
+     * concurrent callers do not share a generator and sample paths stay reproducible.
+     */
+    default InformationSpace build(State s, Random random) {
+        return build(s);
+    }
 }
@@ -0,0 +1,61 @@
+package it.polimi.algorithm.core;
+
+/**
+ * Adaptive allocation of rollouts among candidate actions. Actions are sampled in rounds and, once they have at least
+ * minSamples values, those whose upper confidence bound falls below the lower confidence bound of the current leader
+ * are dropped from the race. The rollouts they no longer use go to the remaining contenders, up to maxSamples each.
+ */
+public class RacingAllocator {
+    private final int minSamples;
+    private final int maxSamples;
+    private final double z;
+
+    public RacingAllocator(int minSamples, int maxSamples, double z) {
+        if (minSamples < 2 || maxSamples < minSamples)
+            throw new IllegalArgumentException("Racing needs 2 <= minSamples <= maxSamples");
+        this.minSamples = minSamples;
+        this.maxSamples = maxSamples;
+        this.z = z;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    /**
+     * Removes dominated actions from the race and returns the number of actions still racing.
+     */
+    public int eliminate(ActionStatistics[] statistics, boolean[] racing) {
+        int leader = -1;
+        for (int a = 0; a < statistics.length; a++) {
+            if (!racing[a])
+                continue;
+            if (statistics[a].getSamples() < minSamples)
+                return count(racing);
+            if (leader < 0 || statistics[a].getValue() > statistics[leader].getValue())
+                leader = a;
+        }
+        if (leader < 0)
+            return 0;
+
+        double lowerBound = statistics[leader].getValue() - z * statistics[leader].getStandardError();
+        for (int a = 0; a < statistics.length; a++) {
+            if (racing[a] && a != leader
+                    && statistics[a].getValue() + z * statistics[a].getStandardError() < lowerBound)
+                racing[a] = false;
+        }
+        return count(racing);
+    }
+
+    private static int count(boolean[] racing) {
+        int count = 0;
+        for (boolean r : racing)
+            if (r)
+                count++;
+        return count;
+    }
+}
@@ -0,0 +1,14 @@
+package it.polimi.algorithm.core;
+
+import it.polimi.algorithm.domain.State;
+
+/**
+ * A transition function that modifies states in place and can revert its changes, so that a state can be explored
+ * and restored instead of being cloned. Transitions applied after checkpoint(state) are undone, most recent first, by
+ * rollback(state, checkpoint). Checkpoints can be nested and must be rolled back in reverse order.
+ */
+public interface ReversibleTransitionFunction extends TransitionFunction {
+    int checkpoint(State state);
+
+    void rollback(State state, int checkpoint);
+}
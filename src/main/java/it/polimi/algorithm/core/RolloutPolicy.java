@@ -3,84 +3,403 @@ package it.polimi.algorithm.core;
 import it.polimi.algorithm.domain.Action;
 import it.polimi.algorithm.domain.Information;
 import it.polimi.algorithm.domain.State;
+import it.polimi.utils.RandomStreams;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-public abstract class RolloutPolicy implements Policy {
+public abstract class RolloutPolicy implements AnytimePolicy {
+
+    protected static final long NO_DEADLINE = Long.MAX_VALUE;
 
     protected InformationSpaceFactory informationSpaceFactory;
     protected Policy basePolicy;
     protected TransitionFunction transitionFunction;
     protected RewardFunction rewardFunction;
     protected int m;
+    protected final Random random;
+    protected ExecutorService executor;
+    protected boolean commonRandomNumbers;
+    protected RacingAllocator racingAllocator;
+    protected long rolloutsSpent;
+    protected int horizon;
+    protected ValueFunction terminalValue;
 
     public RolloutPolicy(InformationSpaceFactory informationSpaceFactory,
                          Policy basePolicy,
                          TransitionFunction transitionFunction,
                          RewardFunction rewardFunction,
-                         int m) {
+                         int m,
+                         long seed) {
         this.informationSpaceFactory = informationSpaceFactory;
         this.basePolicy = basePolicy;
         this.transitionFunction = transitionFunction;
         this.rewardFunction = rewardFunction;
         this.m = m;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Runs the sample paths of the candidate actions as separate tasks on the given executor. With a null executor
+     * (the default) they run one after the other on the calling thread. The chosen action does not depend on the
+     * executor: each sample path draws from its own random stream and sample values are averaged in the same order
+     * whatever the number of threads.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * When enabled, the m sample paths are drawn once per decision epoch and replayed against every candidate
+     * action, so that actions are compared on the same scenarios and paths are generated m times instead of once per
+     * action and sample.
+     */
+    public void setCommonRandomNumbers(boolean commonRandomNumbers) {
+        this.commonRandomNumbers = commonRandomNumbers;
+    }
+
+    /**
+     * Replaces the fixed m rollouts per action with racing: actions are sampled in rounds and dominated ones are
+     * dropped early. The total budget stays m rollouts per action. A null allocator restores the fixed allocation.
+     */
+    public void setRacingAllocator(RacingAllocator racingAllocator) {
+        this.racingAllocator = racingAllocator;
+    }
+
+    /**
+     * Truncates every rollout after horizon base-policy decisions and adds the terminal value of the state reached
+     * instead of simulating the remaining batches. The terminal value is only added if the path goes on after the
+     * horizon. A horizon of zero simulates until the path is exhausted.
+     */
+    public void setHorizon(int horizon, ValueFunction terminalValue) {
+        if (horizon < 0)
+            throw new IllegalArgumentException("Negative horizon " + horizon);
+        if (horizon > 0 && terminalValue == null)
+            throw new IllegalArgumentException("A horizon needs a terminal value");
+        this.horizon = horizon;
+        this.terminalValue = terminalValue;
+    }
+
+    /**
+     * Number of base-policy rollouts simulated so far, over all decision epochs.
+     */
+    public long getRolloutsSpent() {
+        return rolloutsSpent;
     }
 
     @Override
     public Action chooseAction(State state) {
-        List<Action> possibleActions = getPossibleActions(state);
+        return chooseAction(state, NO_DEADLINE);
+    }
+
+    /**
+     * Spreads the rollouts over the candidate actions in rounds and stops as soon as the deadline has passed,
+     * returning the best action among those evaluated so far. Rollouts still running at the deadline are abandoned
+     * and do not count. If no rollout completed in time, the action with the highest immediate reward is returned,
+     * i.e. the myopic choice.
+     * <p>
+     * Abandoned rollouts may still be running when this returns, while the caller goes on changing the state. The
+     * actions and the rollouts are therefore built from a snapshot of the state taken here, never from the state
+     * itself.
+     */
+    @Override
+    public Action chooseAction(State state, long deadline) {
+        State root = state.clone();
+        List<Action> possibleActions = getPossibleActions(root, deadline);
 
         if (possibleActions.isEmpty())
-            return emptyAction(state);
+            return emptyAction(root);
 
         if (possibleActions.size() == 1)
             return possibleActions.get(0);
 
         // System.out.println("Applying rollout with " + possibleActions.size() + " actions");
 
+        int n = possibleActions.size();
+        long seed = random.nextLong();
+        ActionStatistics[] statistics = new ActionStatistics[n];
+        for (int a = 0; a < n; a++)
+            statistics[a] = new ActionStatistics(rewardFunction.getReward(root, possibleActions.get(a)));
+        // listing the actions may have used up the time already
+        if (expired(deadline))
+            return myopicAction(possibleActions, statistics);
+        Epoch epoch = new Epoch(root, possibleActions, seed, deadline);
+        // and so may have building the post-decision states
+        if (expired(deadline))
+            return myopicAction(possibleActions, statistics);
+        boolean[] racing = new boolean[n];
+        Arrays.fill(racing, true);
+
+        if (racingAllocator == null && deadline == NO_DEADLINE)
+            simulateFixed(epoch, statistics);
+        else
+            simulateRounds(epoch, statistics, racing);
+
         Action best = null;
         double bestReward = Double.MIN_VALUE;
-        for (Action action : possibleActions) {
-            State init = state.clone();
-            init = transitionFunction.preToPost(init, action);
-            double v = 0;
-            for (int i=0; i<m; i++) {
-                State s = init.clone();
-                InformationSpace path = informationSpaceFactory.build(s);
-                while (!s.isAbsorbing()) {
-                    // observe realization + post-to-pre transition
-                    Information realization = path.getInformation(s);
-                    if (realization == null)
-                        break;
-                    s = transitionFunction.postToPre(s, realization);
-                    // select action according to policy
-                    Action act = basePolicy.chooseAction(s);
-                    if (act == null)
-                        break;
-                    // compute reward
-                    double immediateReward = rewardFunction.getReward(s, act);
-                    v += immediateReward / Math.max(m, 1);
-                    // transition to post-decision state
-                    s = transitionFunction.preToPost(s, act);
-                }
-            }
-            double imm = rewardFunction.getReward(state, action);
-            double r = imm + v;
-            // System.out.println("Expanded action: " + action + ". Imm. Reward: " + imm + ". Exp. Avg. Reward: " + v);
+        for (int a = 0; a < n; a++) {
+            if (!racing[a] || statistics[a].getSamples() == 0)
+                continue;
+            double r = statistics[a].getValue();
+            // System.out.println("Expanded action: " + possibleActions.get(a) + ". Exp. Reward: " + r);
             if (r > bestReward) {
                 bestReward = r;
-                best = action;
+                best = possibleActions.get(a);
             }
         }
 
+        if (best == null && deadline != NO_DEADLINE)
+            return myopicAction(possibleActions, statistics);
+
+        return best;
+    }
+
+    private static Action myopicAction(List<Action> actions, ActionStatistics[] statistics) {
+        Action best = null;
+        double bestReward = Double.NEGATIVE_INFINITY;
+        for (int a = 0; a < actions.size(); a++) {
+            if (statistics[a].getImmediateReward() > bestReward) {
+                bestReward = statistics[a].getImmediateReward();
+                best = actions.get(a);
+            }
+        }
         return best;
     }
 
+    /**
+     * Whether the deadline has passed. Never true for a decision without deadline.
+     */
+    protected static boolean expired(long deadline) {
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * What the rollouts of a decision epoch share. With a reversible transition function every rollout explores its
+     * action on a copy of the state taken from a pool and reverts it afterwards, otherwise the post-decision state of
+     * each action is computed once and cloned by every rollout.
+     */
+    private final class Epoch {
+        final State state;
+        final List<Action> actions;
+        final long seed;
+        final long deadline;
+        final List<State> postStates;
+        // copies of the state not in use by a rollout, null without a reversible transition function
+        final ArrayDeque<State> workspaces;
+        InformationSpace[] scenarios;
+
+        Epoch(State state, List<Action> actions, long seed, long deadline) {
+            this.state = state;
+            this.actions = actions;
+            this.seed = seed;
+            this.deadline = deadline;
+            // the workers clone these states concurrently
+            state.share();
+            if (transitionFunction instanceof ReversibleTransitionFunction) {
+                this.postStates = null;
+                this.workspaces = new ArrayDeque<>();
+            } else {
+                this.postStates = new ArrayList<>(actions.size());
+                for (Action action : actions) {
+                    // the caller falls back to the myopic action
+                    if (expired(deadline))
+                        break;
+                    State postState = transitionFunction.preToPost(state.clone(), action);
+                    postState.share();
+                    postStates.add(postState);
+                }
+                this.workspaces = null;
+            }
+        }
+
+        /**
+         * A copy of the state for a rollout to explore and revert. There are at most as many copies as rollouts
+         * running at once, and they are dropped with the epoch.
+         */
+        synchronized State acquireWorkspace() {
+            return workspaces.isEmpty() ? state.clone() : workspaces.pop();
+        }
+
+        synchronized void releaseWorkspace(State workspace) {
+            workspaces.push(workspace);
+        }
+    }
+
+    private void simulateFixed(Epoch epoch, ActionStatistics[] statistics) {
+        if (commonRandomNumbers) {
+            epoch.scenarios = new InformationSpace[m];
+            for (int i = 0; i < m; i++)
+                epoch.scenarios[i] = informationSpaceFactory.build(epoch.state, RandomStreams.stream(epoch.seed, i));
+        }
+        int n = epoch.actions.size();
+        int[] actions = new int[n * m];
+        int[] samples = new int[n * m];
+        for (int a = 0; a < n; a++) {
+            for (int i = 0; i < m; i++) {
+                actions[a * m + i] = a;
+                samples[a * m + i] = i;
+            }
+        }
+        double[] values = simulate(epoch, actions, samples);
+        for (int k = 0; k < values.length; k++)
+            statistics[actions[k]].add(values[k]);
+        rolloutsSpent += values.length;
+    }
+
+    /**
+     * Gives one more rollout per round to every action still racing, until the budget cannot cover a whole round,
+     * the racing allocator leaves a single contender or the deadline passes. Without an allocator no action is
+     * dropped. Rounds are never partial, so the actions still racing always have the same number of samples.
+     */
+    private void simulateRounds(Epoch epoch, ActionStatistics[] statistics, boolean[] racing) {
+        int n = epoch.actions.size();
+        int maxSamples = racingAllocator != null ? racingAllocator.getMaxSamples() : m;
+        if (commonRandomNumbers)
+            epoch.scenarios = new InformationSpace[maxSamples];
+        long budget = (long) n * m;
+        int alive = n;
+        for (int round = 0; round < maxSamples && alive > 1 && budget >= alive && !expired(epoch.deadline); round++) {
+            if (commonRandomNumbers)
+                epoch.scenarios[round] = informationSpaceFactory.build(epoch.state,
+                        RandomStreams.stream(epoch.seed, round));
+            int size = alive;
+            int[] actions = new int[size];
+            int[] samples = new int[size];
+            for (int a = 0, k = 0; a < n; a++) {
+                if (racing[a]) {
+                    actions[k] = a;
+                    samples[k++] = round;
+                }
+            }
+            double[] values = simulate(epoch, actions, samples);
+            for (int k = 0; k < size; k++) {
+                // rollouts skipped past the deadline
+                if (Double.isNaN(values[k]))
+                    continue;
+                statistics[actions[k]].add(values[k]);
+                rolloutsSpent++;
+            }
+            budget -= size;
+            if (racingAllocator != null && round + 1 >= racingAllocator.getMinSamples())
+                alive = racingAllocator.eliminate(statistics, racing);
+        }
+    }
+
+    private double[] simulate(Epoch epoch, int[] actions, int[] samples) {
+        double[] values = new double[actions.length];
+        if (executor == null) {
+            for (int k = 0; k < actions.length; k++)
+                values[k] = simulate(epoch, actions[k], samples[k]);
+            return values;
+        }
+
+        List<Callable<Double>> tasks = new ArrayList<>(actions.length);
+        for (int k = 0; k < actions.length; k++) {
+            int action = actions[k], sample = samples[k];
+            tasks.add(() -> simulate(epoch, action, sample));
+        }
+        try {
+            List<Future<Double>> futures;
+            if (epoch.deadline == NO_DEADLINE) {
+                futures = executor.invokeAll(tasks);
+            } else {
+                long remaining = epoch.deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    Arrays.fill(values, Double.NaN);
+                    return values;
+                }
+                // tasks not done by the deadline are cancelled
+                futures = executor.invokeAll(tasks, remaining, TimeUnit.NANOSECONDS);
+            }
+            for (int k = 0; k < actions.length; k++)
+                values[k] = futures.get(k).isCancelled() ? Double.NaN : futures.get(k).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return values;
+    }
+
+    private double simulate(Epoch epoch, int action, int sample) {
+        if (expired(epoch.deadline))
+            return Double.NaN;
+        InformationSpace path;
+        if (epoch.scenarios != null)
+            path = epoch.scenarios[sample].clone();
+        else
+            path = informationSpaceFactory.build(epoch.state,
+                    RandomStreams.stream(RandomStreams.mix(epoch.seed, action), sample));
+
+        if (epoch.workspaces == null)
+            return simulate(epoch.postStates.get(action).clone(), path, epoch.deadline);
+
+        ReversibleTransitionFunction reversible = (ReversibleTransitionFunction) transitionFunction;
+        State s = epoch.acquireWorkspace();
+        int checkpoint = reversible.checkpoint(s);
+        try {
+            return simulate(transitionFunction.preToPost(s, epoch.actions.get(action)), path, epoch.deadline);
+        } finally {
+            reversible.rollback(s, checkpoint);
+            epoch.releaseWorkspace(s);
+        }
+    }
+
+    /**
+     * Follows the base policy from a post-decision state along one sampled path and returns the collected reward,
+     * or NaN if the deadline passes first. The state is modified.
+     */
+    private double simulate(State s, InformationSpace path, long deadline) {
+        double v = 0;
+        int steps = 0;
+        while (!s.isAbsorbing()) {
+            if (expired(deadline))
+                return Double.NaN;
+            // observe realization + post-to-pre transition
+            Information realization = path.getInformation(s);
+            if (realization == null)
+                break;
+            if (horizon > 0 && steps == horizon) {
+                v += terminalValue.getValue(s);
+                break;
+            }
+            s = transitionFunction.postToPre(s, realization);
+            // select action according to policy
+            Action act = basePolicy.chooseAction(s);
+            if (act == null)
+                break;
+            // compute reward
+            v += rewardFunction.getReward(s, act);
+            // transition to post-decision state
+            s = transitionFunction.preToPost(s, act);
+            steps++;
+        }
+        return v;
+    }
+
     @Override
     public String getName() {
         return "rollout";
     }
 
     protected abstract List<Action> getPossibleActions(State state);
+
+    /**
+     * The candidate actions, listed within the deadline. Implementations that take long to list them may return the
+     * ones found when the deadline passes; by default the deadline is ignored.
+     */
+    protected List<Action> getPossibleActions(State state, long deadline) {
+        return getPossibleActions(state);
+    }
+
     protected abstract Action emptyAction(State state);
 }
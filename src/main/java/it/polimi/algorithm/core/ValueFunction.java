@@ -0,0 +1,7 @@
+package it.polimi.algorithm.core;
+
+import it.polimi.algorithm.domain.State;
+
+public interface ValueFunction {
+    double getValue(State state);
+}
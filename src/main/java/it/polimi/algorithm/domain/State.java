@@ -4,4 +4,12 @@ public interface State {
     boolean isAbsorbing();
 
     State clone();
+
+    /**
+     * Called before the state is cloned by several threads at once. A state whose clone() also updates the state
+     * itself, for instance to share its data copy-on-write, makes that update here, so that the concurrent clones
+     * only read it.
+     */
+    default void share() {
+    }
 }
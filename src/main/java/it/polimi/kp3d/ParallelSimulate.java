@@ -0,0 +1,62 @@
+package it.polimi.kp3d;
+
+import it.polimi.Results;
+import it.polimi.kp3d.core.KP3DRewardFunction;
+import it.polimi.kp3d.core.KP3dTransitionFunction;
+import it.polimi.kp3d.instances.KP3DInstance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the same benchmark as {@link Simulate}, spreading the instance x policy jobs over a bounded pool of workers.
+ * Every job builds its own policy, generator and simulator, and rollouts are evaluated sequentially inside a job, so
+ * the results do not depend on the number of workers. Usage: ParallelSimulate [numThreads [minSupport [cacheSize]]],
+ * see {@link Simulate} for the minimum support and the cache size.
+ */
+public class ParallelSimulate {
+    public static void main(String[] args) throws IOException {
+        int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        double minSupport = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+        int cacheSize = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        List<KP3DInstance> instances = Simulate.loadInstances("instances/kp3d/");
+        Results results = new Results();
+
+        // rollout jobs are the longest ones, submit them first
+        List<Callable<Double>> jobs = new ArrayList<>(2 * instances.size());
+        for (KP3DInstance instance : instances)
+            jobs.add(() -> Simulate.simulateRolloutMyopic(results, instance, new KP3DRewardFunction(),
+                    new KP3dTransitionFunction(), null, minSupport, cacheSize));
+        for (KP3DInstance instance : instances)
+            jobs.add(() -> Simulate.simulateMyopic(results, instance, new KP3DRewardFunction(),
+                    new KP3dTransitionFunction(), minSupport));
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        double avgRolloutReward = 0;
+        double avgMyopicReward = 0;
+        try {
+            List<Future<Double>> futures = pool.invokeAll(jobs);
+            for (int i = 0; i < instances.size(); i++) {
+                avgRolloutReward += futures.get(i).get();
+                avgMyopicReward += futures.get(instances.size() + i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("Average myopic reward: %f%n", avgMyopicReward / instances.size());
+        System.out.printf("Average rollout reward: %f%n", avgRolloutReward / instances.size());
+
+        results.printCsv("results/kp3d/policies.csv");
+    }
+}
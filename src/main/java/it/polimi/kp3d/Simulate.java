@@ -21,13 +21,40 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
+/**
+ * Runs the myopic and the rollout policy on every instance. Usage: Simulate [minSupport [cacheSize]], where minSupport
+ * is the fraction of its base every item must rest on, 0 (no constraint) by default, and cacheSize the number of
+ * actions of the base policy of the rollouts cached by state, 0 (no cache) by default.
+ */
 public class Simulate {
     public static void main(String[] args) throws IOException {
-        String instancesPath = "instances/kp3d/";
-        Path instancesDir = Path.of(instancesPath);
+        double minSupport = args.length > 0 ? Double.parseDouble(args[0]) : 0;
+        int cacheSize = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        List<KP3DInstance> instances = loadInstances("instances/kp3d/");
         Results results = new Results();
+        double avgMyopicReward = 0;
+        double avgRolloutReward = 0;
+        int numInstances = 0;
+        for (KP3DInstance instance : instances) {
+            numInstances++;
+            RewardFunction rewardFunction = new KP3DRewardFunction();
+            TransitionFunction transitionFunction = new KP3dTransitionFunction();
+            avgMyopicReward += simulateMyopic(results, instance, rewardFunction, transitionFunction, minSupport);
+            avgRolloutReward += simulateRolloutMyopic(results, instance, rewardFunction, transitionFunction,
+                    ForkJoinPool.commonPool(), minSupport, cacheSize);
+        }
+        System.out.printf("Average myopic reward: %f%n", avgMyopicReward / numInstances);
+        System.out.printf("Average rollout reward: %f%n", avgRolloutReward / numInstances);
+
+        results.printCsv("results/kp3d/policies.csv");
+    }
+
+    static List<KP3DInstance> loadInstances(String instancesPath) throws IOException {
+        Path instancesDir = Path.of(instancesPath);
         List<String> filenames = Files.walk(instancesDir)
                 .map(p -> p.getFileName().toString())
                 .filter(f -> f.endsWith(".json"))
@@ -42,30 +69,15 @@ public class Simulate {
             reader.close();
         }
         instances.sort(Comparator.comparingInt(KP3DInstance::getId));
-        double avgMyopicReward = 0;
-        double avgRolloutReward = 0;
-        int numInstances = 0;
-        for (KP3DInstance instance : instances) {
-            System.out.println(instance.getItems().size());
-            if (System.nanoTime() > 0) continue;
-            numInstances++;
-            RewardFunction rewardFunction = new KP3DRewardFunction();
-            TransitionFunction transitionFunction = new KP3dTransitionFunction();
-            avgMyopicReward = simulateMyopic(results, avgMyopicReward, instance, rewardFunction, transitionFunction);
-            avgRolloutReward = simulateRolloutMyopic(results, avgRolloutReward, instance, rewardFunction, transitionFunction);
-        }
-        System.out.printf("Average myopic reward: %f%n", avgMyopicReward / numInstances);
-        System.out.printf("Average rollout reward: %f%n", avgRolloutReward / numInstances);
-
-        results.printCsv("results/kp3d/policies.csv");
+        return instances;
     }
 
-    private static double simulateMyopic(Results results, double avgMyopicReward, KP3DInstance instance,
-                                         RewardFunction rewardFunction, TransitionFunction transitionFunction) {
+    static double simulateMyopic(Results results, KP3DInstance instance, RewardFunction rewardFunction,
+                                 TransitionFunction transitionFunction, double minSupport) {
         InformationSpace informationSpace = new KP3DInformationSpace(instance.getItems());
         Policy policy = new KP3DMyopic();
         Simulator simulator = new Simulator(policy, rewardFunction, informationSpace, transitionFunction);
-        State initial = new KP3DState(instance.getW(), instance.getD(), instance.getH());
+        State initial = initialState(instance, minSupport);
         double start = System.nanoTime();
         double reward = simulator.simulate(initial, instance.getId());
         double end = System.nanoTime();
@@ -74,26 +86,29 @@ public class Simulate {
         long binVol = (long) instance.getW() * instance.getD() * instance.getH();
         long usedVol = state.getPackedVolume();
         double volRatio = (double) usedVol / binVol;
-        avgMyopicReward += reward;
         results.addResult(instance.getId(), policy.getName(), reward);
         results.addResult(instance.getId(), policy.getName() + "-seconds", seconds);
         results.addResult(instance.getId(), policy.getName() + "-volratio", volRatio);
         System.out.printf("[Myopic %d] Total reward: %f%n", instance.getId(), reward);
-        return avgMyopicReward;
+        return reward;
     }
 
-    private static double simulateRolloutMyopic(Results results, double avgRolloutMyopicReward, KP3DInstance instance,
-                                                RewardFunction rewardFunction, TransitionFunction transitionFunction) {
+    static double simulateRolloutMyopic(Results results, KP3DInstance instance, RewardFunction rewardFunction,
+                                        TransitionFunction transitionFunction, ExecutorService executor,
+                                        double minSupport, int cacheSize) {
         InformationSpace informationSpace = new KP3DInformationSpace(instance.getItems());
-        Policy policy = new KP3DRolloutMyopic(
+        KP3DCachingPolicy cache = cacheSize > 0 ? new KP3DCachingPolicy(new KP3DMyopic(), cacheSize) : null;
+        KP3DRolloutMyopic policy = new KP3DRolloutMyopic(
                 new KP3DRandomSpaceFactory(new KP3DGenerator(new Random(1338))),
-                new KP3DMyopic(),
+                cache != null ? cache : new KP3DMyopic(),
                 transitionFunction,
                 rewardFunction,
-                5
+                5,
+                1338
         );
+        policy.setExecutor(executor);
         Simulator simulator = new Simulator(policy, rewardFunction, informationSpace, transitionFunction);
-        State initial = new KP3DState(instance.getW(), instance.getD(), instance.getH());
+        State initial = initialState(instance, minSupport);
         double start = System.nanoTime();
         double reward = simulator.simulate(initial, instance.getId());
         double end = System.nanoTime();
@@ -102,11 +117,19 @@ public class Simulate {
         long binVol = (long) instance.getW() * instance.getD() * instance.getH();
         long usedVol = state.getPackedVolume();
         double volRatio = (double) usedVol / binVol;
-        avgRolloutMyopicReward += reward;
         results.addResult(instance.getId(), policy.getName(), reward);
         results.addResult(instance.getId(), policy.getName() + "-seconds", seconds);
         results.addResult(instance.getId(), policy.getName() + "-volratio", volRatio);
         System.out.printf("[Rollout %d] Total reward: %f%n", instance.getId(), reward);
-        return avgRolloutMyopicReward;
+        if (cache != null)
+            System.out.printf("[Rollout %d] Cache hits: %d, misses: %d%n", instance.getId(), cache.getHits(),
+                    cache.getMisses());
+        return reward;
+    }
+
+    static KP3DState initialState(KP3DInstance instance, double minSupport) {
+        KP3DState state = new KP3DState(instance.getW(), instance.getD(), instance.getH());
+        state.setMinSupport(minSupport);
+        return state;
     }
 }
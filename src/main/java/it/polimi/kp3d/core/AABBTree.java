@@ -5,110 +5,232 @@ import it.polimi.kp3d.domain.Cube;
 
 import java.util.*;
 
+/**
+ * Dynamic bounding volume hierarchy of boxes, balanced like an AVL tree and grown by the surface area heuristic.
+ * <p>
+ * Nodes live in a pool of primitive arrays and refer to each other by index: node n has its bounds at
+ * bounds[6n .. 6n + 5] (min x, y, z, then max x, y, z), its links in parent, left and right and its height in height.
+ * Removed nodes are chained in a free list through parent and reused. Cloning copies the arrays, and traversals read
+ * consecutive ints instead of following references.
+ */
 public final class AABBTree implements Iterable<Cube> {
 
-    public final class AABBTreeIterator implements Iterator<Cube> {
-        final Stack<Node> stack;
+    private static final int NULL = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    public static final int X = 0, Y = 1, Z = 2;
+    private static final Visitor STOP = box -> false;
+    private static final ThreadLocal<Traversal> TRAVERSAL = ThreadLocal.withInitial(Traversal::new);
+
+    private int[] bounds;
+    private int[] parent;
+    private int[] left;
+    private int[] right;
+    // -1 for the nodes in the free list
+    private int[] height;
+    // the box of every leaf, null for internal nodes
+    private Cube[] boxes;
+    private int root = NULL;
+    private int freeList = NULL;
+    // nodes taken from the pool so far, free or not
+    private int numNodes;
+
+    public AABBTree() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private AABBTree(int capacity) {
+        bounds = new int[6 * capacity];
+        parent = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        height = new int[capacity];
+        boxes = new Cube[capacity];
+    }
+
+    /**
+     * Receives the boxes found by a query, in no particular order.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * Returns false to stop the query.
+         */
+        boolean visit(Cube box);
+    }
+
+    private static final class Traversal {
+        int[] stack = new int[32];
+        // queries running on the thread
+        int depth;
+    }
 
-        public AABBTreeIterator(Node root) {
-            stack = new Stack<>();
-            while (root != null) {
-                stack.push(root);
-                root = root.leftChild;
+    @Override
+    public Iterator<Cube> iterator() {
+        return new Iterator<Cube>() {
+            private int next = advance(0);
+
+            private int advance(int n) {
+                while (n < numNodes && (height[n] < 0 || !isLeaf(n)))
+                    n++;
+                return n;
             }
-        }
 
-        public boolean hasNext() {
-            return !stack.isEmpty();
-        }
+            @Override
+            public boolean hasNext() {
+                return next < numNodes;
+            }
 
-        public Cube next() {
-            Node node = stack.pop();
-            Cube result = node.aabb;
-            if (node.rightChild != null) {
-                node = node.rightChild;
-                while (node != null) {
-                    stack.push(node);
-                    node = node.rightChild;
-                }
+            @Override
+            public Cube next() {
+                if (next >= numNodes)
+                    throw new NoSuchElementException();
+                Cube box = boxes[next];
+                next = advance(next + 1);
+                return box;
             }
-            return result;
-        }
+        };
     }
 
-    private static final class Node {
-        Cube aabb;
-
-        int height;
-        Node parent;
-        Node leftChild, rightChild;
+    public AABBTree clone() {
+        AABBTree cloned = new AABBTree(Math.max(numNodes, 1));
+        System.arraycopy(bounds, 0, cloned.bounds, 0, 6 * numNodes);
+        System.arraycopy(parent, 0, cloned.parent, 0, numNodes);
+        System.arraycopy(left, 0, cloned.left, 0, numNodes);
+        System.arraycopy(right, 0, cloned.right, 0, numNodes);
+        System.arraycopy(height, 0, cloned.height, 0, numNodes);
+        System.arraycopy(boxes, 0, cloned.boxes, 0, numNodes);
+        cloned.root = root;
+        cloned.freeList = freeList;
+        cloned.numNodes = numNodes;
+        return cloned;
+    }
 
-        Node(Cube aabb) {
-            this.aabb = aabb.clone();
-        }
+    /**
+     * Builds a tree over the boxes top-down in one pass. Every node splits its boxes, sorted by centre along one
+     * axis, where the surface area heuristic is lowest: the summed surface areas of the two halves, each weighted by
+     * its number of boxes, over all three axes and all split points. The result is usually tighter than the tree grown
+     * by inserting the boxes one at a time, so queries visit fewer nodes. The tree can then be updated as usual, and
+     * the handle of every box is its position in the iteration order of the collection.
+     */
+    public static AABBTree build(Collection<Cube> aabbs) {
+        int n = aabbs.size();
+        AABBTree tree = new AABBTree(Math.max(2 * n - 1, 1));
+        if (n == 0)
+            return tree;
+        long[] keys = new long[n];
+        int i = 0;
+        for (Cube aabb : aabbs) {
+            int leaf = tree.allocate();
+            tree.setBounds(leaf, aabb);
+            tree.boxes[leaf] = aabb;
+            keys[i++] = leaf;
+        }
+        tree.root = tree.build(keys, 0, n, new long[n]);
+        return tree;
+    }
 
-        boolean isLeaf() {
-            return leftChild == null && rightChild == null;
+    /**
+     * Builds the subtree over the leaves in keys[from, to) and returns its root. The low 32 bits of every key are a
+     * leaf, the high bits are overwritten with its centre along the axis being sorted.
+     */
+    private int build(long[] keys, int from, int to, long[] areas) {
+        if (to - from == 1)
+            return (int) keys[from];
+
+        int[] box = new int[6];
+        long bestCost = Long.MAX_VALUE;
+        int bestAxis = X, bestSplit = from + 1;
+        for (int axis = 0; axis < 3; axis++) {
+            sortByCentre(keys, from, to, axis);
+            // surface areas of the boxes enclosing keys[from, i) for every i, then of keys[i, to)
+            resetBox(box);
+            for (int i = from; i < to - 1; i++) {
+                enclose(box, (int) keys[i]);
+                areas[i + 1] = surfaceArea(box) * (i + 1 - from);
+            }
+            resetBox(box);
+            for (int i = to - 1; i > from; i--) {
+                enclose(box, (int) keys[i]);
+                long cost = areas[i] + surfaceArea(box) * (to - i);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplit = i;
+                }
+            }
         }
+        if (bestAxis != Z)
+            sortByCentre(keys, from, to, bestAxis);
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Node node = (Node) o;
-            return Objects.equals(aabb, node.aabb);
-        }
+        int leftChild = build(keys, from, bestSplit, areas);
+        int rightChild = build(keys, bestSplit, to, areas);
+        int node = allocate();
+        left[node] = leftChild;
+        right[node] = rightChild;
+        parent[leftChild] = node;
+        parent[rightChild] = node;
+        height[node] = 1 + Math.max(height[leftChild], height[rightChild]);
+        union(node, leftChild, rightChild);
+        return node;
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(aabb);
+    private void sortByCentre(long[] keys, int from, int to, int axis) {
+        for (int i = from; i < to; i++) {
+            int leaf = (int) keys[i];
+            // twice the centre, which is all sorting needs
+            long centre = (long) bounds[6 * leaf + axis] + bounds[6 * leaf + 3 + axis];
+            keys[i] = (centre << 32) | leaf;
         }
+        Arrays.sort(keys, from, to);
     }
 
-    private Node root = null;
-
-    public Node getRoot() {
-        return root;
+    private static void resetBox(int[] box) {
+        for (int i = 0; i < 3; i++) {
+            box[i] = Integer.MAX_VALUE;
+            box[3 + i] = Integer.MIN_VALUE;
+        }
     }
 
-    @Override
-    public Iterator<Cube> iterator() {
-        return new AABBTreeIterator(root);
+    private void enclose(int[] box, int n) {
+        for (int i = 0; i < 3; i++) {
+            box[i] = Math.min(box[i], bounds[6 * n + i]);
+            box[3 + i] = Math.max(box[3 + i], bounds[6 * n + 3 + i]);
+        }
     }
 
-    public AABBTree clone() {
-        AABBTree cloned = new AABBTree();
-        cloned.root = recursiveClone(this.root, null);
-        return cloned;
+    private static long surfaceArea(int[] box) {
+        long w = box[3] - box[0], d = box[4] - box[1], h = box[5] - box[2];
+        return 2 * (w * h + d * h + w * d);
     }
 
-    public Node recursiveClone(Node visited, Node parent) {
-        if (visited == null) return null;
-        Node cloned = new Node(visited.aabb.clone());
-        cloned.parent = parent;
-        cloned.leftChild = recursiveClone(visited.leftChild, cloned);
-        cloned.rightChild = recursiveClone(visited.rightChild, cloned);
-        return cloned;
+    /**
+     * Adds the box and returns its handle, which stays valid, also in clones of the tree, until the box is removed.
+     */
+    public int insert(final Cube aabb) {
+        int leaf = allocate();
+        setBounds(leaf, aabb);
+        boxes[leaf] = aabb;
+        link(leaf);
+        return leaf;
     }
 
-    public void insert(final Cube aabb) {
-        Node toInsert = new Node(aabb);
-
-        if (root == null) {
+    /**
+     * Attaches the leaf where the surface area heuristic costs least.
+     */
+    private void link(final int toInsert) {
+        if (root == NULL) {
             root = toInsert;
             return;
         }
 
-        Node node = root;
-        while (!node.isLeaf()) {
-            Cube combinedAABB;
-            Node child1 = node.leftChild;
-            Node child2 = node.rightChild;
+        int node = root;
+        while (!isLeaf(node)) {
+            int child1 = left[node];
+            int child2 = right[node];
 
-            long parentArea = node.aabb.getSurfaceArea();
+            long parentArea = surfaceArea(node);
 
-            combinedAABB = node.aabb.minimumBoundingCuboid(toInsert.aabb);
-            long combinedArea = combinedAABB.getSurfaceArea();
+            long combinedArea = combinedSurfaceArea(node, toInsert);
 
             // Cost of creating a new parent for this node and the new leaf
             long cost = 2 * combinedArea;
@@ -130,101 +252,221 @@ public final class AABBTree implements Iterable<Cube> {
             }
         }
 
-        Node sibling = node;
-        Node oldParent = node.parent;
-        Node newParent = new Node(sibling.aabb.minimumBoundingCuboid(toInsert.aabb));
-        newParent.parent = oldParent;
-        newParent.height = sibling.height + 1;
-        newParent.leftChild = sibling;
-        newParent.rightChild = toInsert;
-        sibling.parent = newParent;
-        toInsert.parent = newParent;
-
-        if (oldParent != null) {
+        int sibling = node;
+        int oldParent = parent[node];
+        int newParent = allocate();
+        union(newParent, sibling, toInsert);
+        parent[newParent] = oldParent;
+        height[newParent] = height[sibling] + 1;
+        left[newParent] = sibling;
+        right[newParent] = toInsert;
+        parent[sibling] = newParent;
+        parent[toInsert] = newParent;
+
+        if (oldParent != NULL) {
             //The sibling was not the root, connect new parent
-            if (oldParent.leftChild == sibling) {
-                oldParent.leftChild = newParent;
+            if (left[oldParent] == sibling) {
+                left[oldParent] = newParent;
             } else {
-                oldParent.rightChild = newParent;
+                right[oldParent] = newParent;
             }
         } else {
             root = newParent;
         }
 
-        node = toInsert.parent;
-        while (node != null) {
+        refit(parent[toInsert]);
+    }
+
+    public void remove(Cube aabb) {
+        int leaf = find(aabb);
+        if (leaf == NULL)
+            throw new IllegalArgumentException("Not in the tree: " + aabb);
+        unlink(leaf);
+        free(leaf);
+    }
+
+    /**
+     * Removes the box with the given handle in O(log n).
+     */
+    public void remove(int handle) {
+        checkHandle(handle);
+        unlink(handle);
+        free(handle);
+    }
+
+    /**
+     * Replaces the box with the given handle, which keeps the handle. If the bounds change the leaf is detached and
+     * attached again where the new box belongs, without going through the free list.
+     */
+    public void update(int handle, Cube aabb) {
+        checkHandle(handle);
+        int b = 6 * handle;
+        boxes[handle] = aabb;
+        if (bounds[b] == aabb.getX() && bounds[b + 1] == aabb.getY() && bounds[b + 2] == aabb.getZ()
+                && bounds[b + 3] == aabb.getMaxX() && bounds[b + 4] == aabb.getMaxY()
+                && bounds[b + 5] == aabb.getMaxZ())
+            return;
+        unlink(handle);
+        setBounds(handle, aabb);
+        parent[handle] = NULL;
+        link(handle);
+    }
+
+    /**
+     * The box with the given handle.
+     */
+    public Cube get(int handle) {
+        checkHandle(handle);
+        return boxes[handle];
+    }
+
+    private void checkHandle(int handle) {
+        if (handle < 0 || handle >= numNodes || boxes[handle] == null)
+            throw new IllegalArgumentException("Not a handle of this tree: " + handle);
+    }
+
+    /**
+     * Detaches the leaf and frees its parent, whose place is taken by the sibling.
+     */
+    private void unlink(int leaf) {
+        if (leaf == root) {
+            root = NULL;
+            return;
+        }
+
+        int parent = this.parent[leaf];
+        int grandParent = this.parent[parent];
+        int sibling = (left[parent] == leaf) ? right[parent] : left[parent];
+        free(parent);
+
+        if (grandParent != NULL) {
+            // Destroy parent and connect sibling to grandParent.
+            if (left[grandParent] == parent) {
+                left[grandParent] = sibling;
+            } else {
+                right[grandParent] = sibling;
+            }
+            this.parent[sibling] = grandParent;
+
+            // Adjust ancestor bounds.
+            refit(grandParent);
+        } else {
+            root = sibling;
+            this.parent[sibling] = NULL;
+        }
+    }
+
+    /**
+     * The leaf holding a box equal to the given one, or NULL. Only the nodes whose bounds contain the box can lead to
+     * it, so the search follows a few paths instead of visiting the whole tree.
+     */
+    private int find(Cube aabb) {
+        if (root == NULL)
+            return NULL;
+        int minX = aabb.getX(), minY = aabb.getY(), minZ = aabb.getZ();
+        int maxX = aabb.getMaxX(), maxY = aabb.getMaxY(), maxZ = aabb.getMaxZ();
+        int[] stack = acquireStack();
+        int size = 0;
+        try {
+            stack[size++] = root;
+            while (size > 0) {
+                int n = stack[--size];
+                int b = 6 * n;
+                if (bounds[b] > minX || bounds[b + 1] > minY || bounds[b + 2] > minZ || bounds[b + 3] < maxX
+                        || bounds[b + 4] < maxY || bounds[b + 5] < maxZ)
+                    continue;
+                if (isLeaf(n)) {
+                    if (bounds[b] == minX && bounds[b + 1] == minY && bounds[b + 2] == minZ && bounds[b + 3] == maxX
+                            && bounds[b + 4] == maxY && bounds[b + 5] == maxZ)
+                        return n;
+                    continue;
+                }
+                if (stack.length < size + 2)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[size++] = right[n];
+                stack[size++] = left[n];
+            }
+            return NULL;
+        } finally {
+            releaseStack(stack);
+        }
+    }
+
+    /**
+     * Rebalances and recomputes bounds and heights from the node up to the root.
+     */
+    private void refit(int node) {
+        while (node != NULL) {
             node = balance(node);
 
-            Node child1 = node.leftChild;
-            Node child2 = node.rightChild;
+            int child1 = left[node];
+            int child2 = right[node];
 
-            node.height = 1 + Math.max(child1.height, child2.height);
-            node.aabb = child1.aabb.minimumBoundingCuboid(child2.aabb);
+            height[node] = 1 + Math.max(height[child1], height[child2]);
+            union(node, child1, child2);
 
-            node = node.parent;
+            node = parent[node];
         }
     }
 
-    private long getDescendingCost(final Node toInsert, final Node child, final long inheritanceCost) {
-        Cube aabb = toInsert.aabb.minimumBoundingCuboid(child.aabb);
-        if (child.isLeaf()) {
-            return aabb.getSurfaceArea() + inheritanceCost;
+    private long getDescendingCost(final int toInsert, final int child, final long inheritanceCost) {
+        long newArea = combinedSurfaceArea(toInsert, child);
+        if (isLeaf(child)) {
+            return newArea + inheritanceCost;
         } else {
-            long oldArea = child.aabb.getSurfaceArea();
-            long newArea = aabb.getSurfaceArea();
+            long oldArea = surfaceArea(child);
             return (newArea - oldArea) + inheritanceCost;
         }
     }
 
-
-    private Node balance(Node a) {
-        if (a.isLeaf() || a.height < 2)
+    private int balance(int a) {
+        if (isLeaf(a) || height[a] < 2)
             return a;
 
-        Node b = a.leftChild;
-        Node c = a.rightChild;
+        int b = left[a];
+        int c = right[a];
 
-        int balance = c.height - b.height;
+        int balance = height[c] - height[b];
 
         // rotate c up
         if (balance > 1) {
-            Node f = c.leftChild;
-            Node g = c.rightChild;
+            int f = left[c];
+            int g = right[c];
 
             //swap a and c
-            c.leftChild = a;
-            c.parent = a.parent;
-            a.parent = c;
+            left[c] = a;
+            parent[c] = parent[a];
+            parent[a] = c;
 
             //a's old parent points to c
-            if (c.parent != null) {
-                if (c.parent.leftChild == a)
-                    c.parent.leftChild = c;
+            if (parent[c] != NULL) {
+                if (left[parent[c]] == a)
+                    left[parent[c]] = c;
                 else
-                    c.parent.rightChild = c;
+                    right[parent[c]] = c;
             } else {
                 root = c;
             }
 
             // rotate
-            if (f.height > g.height) {
-                c.rightChild = f;
-                a.rightChild = g;
-                g.parent = a;
-                a.aabb = b.aabb.minimumBoundingCuboid(g.aabb);
-                c.aabb = a.aabb.minimumBoundingCuboid(f.aabb);
-
-                a.height = 1 + Math.max(b.height, g.height);
-                c.height = 1 + Math.max(a.height, f.height);
+            if (height[f] > height[g]) {
+                right[c] = f;
+                right[a] = g;
+                parent[g] = a;
+                union(a, b, g);
+                union(c, a, f);
+
+                height[a] = 1 + Math.max(height[b], height[g]);
+                height[c] = 1 + Math.max(height[a], height[f]);
             } else {
-                c.rightChild = g;
-                a.rightChild = f;
-                f.parent = a;
-                a.aabb = b.aabb.minimumBoundingCuboid(f.aabb);
-                c.aabb = a.aabb.minimumBoundingCuboid(g.aabb);
-
-                a.height = 1 + Math.max(b.height, f.height);
-                c.height = 1 + Math.max(a.height, g.height);
+                right[c] = g;
+                right[a] = f;
+                parent[f] = a;
+                union(a, b, f);
+                union(c, a, g);
+
+                height[a] = 1 + Math.max(height[b], height[f]);
+                height[c] = 1 + Math.max(height[a], height[g]);
             }
 
             return c;
@@ -232,44 +474,44 @@ public final class AABBTree implements Iterable<Cube> {
 
         // rotate b up
         if (balance < -1) {
-            Node d = b.leftChild;
-            Node e = b.rightChild;
+            int d = left[b];
+            int e = right[b];
 
             //Swap a and b
-            b.leftChild = a;
-            b.parent = a.parent;
-            a.parent = b;
+            left[b] = a;
+            parent[b] = parent[a];
+            parent[a] = b;
 
             // A's old parent should point to B
-            if (b.parent != null) {
-                if (b.parent.leftChild == a) {
-                    b.parent.leftChild = b;
+            if (parent[b] != NULL) {
+                if (left[parent[b]] == a) {
+                    left[parent[b]] = b;
                 } else {
-                    b.parent.rightChild = b;
+                    right[parent[b]] = b;
                 }
             } else {
                 root = b;
             }
 
             // Rotate
-            if (d.height > e.height) {
-                b.rightChild = d;
-                a.leftChild = e;
-                e.parent = a;
-                a.aabb = c.aabb.minimumBoundingCuboid(e.aabb);
-                b.aabb = a.aabb.minimumBoundingCuboid(d.aabb);
-
-                a.height = 1 + Math.max(c.height, e.height);
-                b.height = 1 + Math.max(a.height, d.height);
+            if (height[d] > height[e]) {
+                right[b] = d;
+                left[a] = e;
+                parent[e] = a;
+                union(a, c, e);
+                union(b, a, d);
+
+                height[a] = 1 + Math.max(height[c], height[e]);
+                height[b] = 1 + Math.max(height[a], height[d]);
             } else {
-                b.rightChild = e;
-                a.leftChild = d;
-                d.parent = a;
-                a.aabb = c.aabb.minimumBoundingCuboid(d.aabb);
-                b.aabb = a.aabb.minimumBoundingCuboid(e.aabb);
-
-                a.height = 1 + Math.max(c.height, d.height);
-                b.height = 1 + Math.max(a.height, e.height);
+                right[b] = e;
+                left[a] = d;
+                parent[d] = a;
+                union(a, c, d);
+                union(b, a, e);
+
+                height[a] = 1 + Math.max(height[c], height[d]);
+                height[b] = 1 + Math.max(height[a], height[e]);
             }
 
             return b;
@@ -280,529 +522,309 @@ public final class AABBTree implements Iterable<Cube> {
 
     public List<Cube> getOverlapping(Cube aabb) {
         List<Cube> overlapping = new ArrayList<>();
-        
-        if (root == null)
-            return overlapping;
-
-        Stack<Node> s = new Stack<>();
-        if (CubeUtils.overlap(aabb, root.aabb)){
-            if (root.isLeaf())
-                return List.of(root.aabb);
-            s.push(root);
-        }
-
-        while (s.size() > 0) {
-            Node cur = s.pop();
-            if (CubeUtils.overlap(aabb, cur.leftChild.aabb)) {
-                if (cur.leftChild.isLeaf())
-                    overlapping.add(cur.leftChild.aabb);
-                else
-                    s.push(cur.leftChild);
-            }
-
-            if (CubeUtils.overlap(aabb, cur.rightChild.aabb)) {
-                if (cur.rightChild.isLeaf())
-                    overlapping.add(cur.rightChild.aabb);
-                else
-                    s.push(cur.rightChild);
-            }
-        }
-
+        visitOverlapping(aabb, box -> overlapping.add(box));
         return overlapping;
     }
 
     public boolean overlaps(Cube aabb) {
-        if (root == null)
-            return false;
-
-        Stack<Node> s = new Stack<>();
-        if (CubeUtils.overlap(aabb, root.aabb)){
-            if (root.isLeaf())
-                return true;
-            s.push(root);
-        }
-
-        while (s.size() > 0) {
-            Node cur = s.pop();
-            if (CubeUtils.overlap(aabb, cur.leftChild.aabb)) {
-                if (cur.leftChild.isLeaf())
-                    return true;
-                s.push(cur.leftChild);
-            }
-
-            if (CubeUtils.overlap(aabb, cur.rightChild.aabb)) {
-                if (cur.rightChild.isLeaf())
-                    return true;
-                s.push(cur.rightChild);
-            }
-        }
-
-        return false;
+        return !visitOverlapping(aabb, STOP);
     }
 
     public boolean overlaps(Cube aabb, Set<Cube> ignoreList) {
-        if (root == null)
-            return false;
-
-        Stack<Node> s = new Stack<>();
-        if (CubeUtils.overlap(aabb, root.aabb)){
-            if (root.isLeaf())
-                return !ignoreList.contains(root.aabb);
-            s.push(root);
-        }
+        return !visitOverlapping(aabb, ignoreList::contains);
+    }
 
-        while (s.size() > 0) {
-            Node cur = s.pop();
-            if (CubeUtils.overlap(aabb, cur.leftChild.aabb)) {
-                if (cur.leftChild.isLeaf() && !ignoreList.contains(cur.leftChild.aabb))
-                    return true;
-                if(!cur.leftChild.isLeaf())
-                        s.push(cur.leftChild);
-            }
+    /**
+     * Passes the boxes overlapping the given one to the visitor. Returns false if the visitor stopped the query.
+     */
+    public boolean visitOverlapping(Cube aabb, Visitor visitor) {
+        if (root == NULL)
+            return true;
+        if (!overlap(aabb, root))
+            return true;
+        if (isLeaf(root))
+            return visitor.visit(boxes[root]);
+
+        int[] stack = acquireStack();
+        int size = 0;
+        try {
+            stack[size++] = root;
+            while (size > 0) {
+                int cur = stack[--size];
+                if (stack.length < size + 2)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                int child = left[cur];
+                if (overlap(aabb, child)) {
+                    if (!isLeaf(child))
+                        stack[size++] = child;
+                    else if (!visitor.visit(boxes[child]))
+                        return false;
+                }
 
-            if (CubeUtils.overlap(aabb, cur.rightChild.aabb)) {
-                if (cur.rightChild.isLeaf() && !ignoreList.contains(cur.rightChild.aabb))
-                    return true;
-                if(!cur.rightChild.isLeaf())
-                    s.push(cur.rightChild);
+                child = right[cur];
+                if (overlap(aabb, child)) {
+                    if (!isLeaf(child))
+                        stack[size++] = child;
+                    else if (!visitor.visit(boxes[child]))
+                        return false;
+                }
             }
+            return true;
+        } finally {
+            releaseStack(stack);
         }
-
-        return false;
     }
 
+    /**
+     * The boxes below the given one, overlapping it on X and Y, whose top is at most tolerance under its bottom.
+     */
     public List<Cube> getSupportingBoxes(Cube aabb, int tolerance) {
-        if (root == null) {
+        if (root == NULL)
             return Collections.emptyList();
-        }
-
         List<Cube> supportingBoxes = new ArrayList<>();
-        Stack<Node> s = new Stack<>();
-
-        // if overlapping on X,Y
-        addSupportingOrPushToStack(aabb, s, supportingBoxes, root, tolerance);
-
-        while (s.size() > 0) {
-            Node cur = s.pop();
-            addSupportingOrPushToStack(aabb, s, supportingBoxes, cur.leftChild, tolerance);
-            addSupportingOrPushToStack(aabb, s, supportingBoxes, cur.rightChild, tolerance);
-        }
-
+        visitSupporting(aabb, tolerance, box -> supportingBoxes.add(box));
         return supportingBoxes;
     }
 
-    private void addSupportingOrPushToStack(final Cube aabb, final Stack<Node> s, final List<Cube> supportingBoxes,
-                                            final Node child1, int tolerance) {
-        if (CubeUtils.overlapXY(aabb, child1.aabb)){
-            if (child1.isLeaf()) {
-                int diff = aabb.getZ() - child1.aabb.getMaxZ();
-                if (0 <= diff && diff <= tolerance)
-                    supportingBoxes.add(child1.aabb);
-            } else {
-                if (child1.aabb.getMaxZ() >= aabb.getZ() - tolerance && child1.aabb.getZ() < aabb.getZ())
-                    s.push(child1);
-            }
-        }
+    /**
+     * Passes the boxes of {@link #getSupportingBoxes(Cube, int)} to the visitor. Returns false if the visitor stopped
+     * the query.
+     */
+    public boolean visitSupporting(Cube aabb, int tolerance, Visitor visitor) {
+        return visitSupporting(aabb.getX(), aabb.getY(), aabb.getMaxX(), aabb.getMaxY(), aabb.getZ(), tolerance,
+                visitor);
     }
 
-    public Cube getClosestPrecedentZ(Cube aabb) {
-        if (root == null) {
-            return null;
-        }
-
-        int minBound = aabb.getZ();
-        int currentMax = 0;
-        Cube closest = null;
-        Stack<Node> s = new Stack<>();
-
-        if (CubeUtils.overlapXY(aabb, root.aabb)) {
-            int rootMaxBound = root.aabb.getMaxZ();
-            int rootMinBound = root.aabb.getZ();
-            if (root.isLeaf()) {
-                if (minBound >= rootMaxBound && rootMaxBound > currentMax) {
-                    closest = root.aabb;
-                    currentMax = closest.getMaxZ();
-                }
-            } else {
-                if (minBound >= rootMinBound && rootMaxBound > currentMax)
-                    s.push(root);
-            }
-        }
-
-        while (s.size() > 0) {
-            Node cur = s.pop();
-
-            if (CubeUtils.overlapXY(aabb, cur.leftChild.aabb)) {
-                int leftChildMaxBound = cur.leftChild.aabb.getMaxZ();
-                int leftChildMinBound = cur.leftChild.aabb.getZ();
-                if (cur.leftChild.isLeaf()) {
-                    if (minBound >= leftChildMaxBound && leftChildMaxBound > currentMax) {
-                        closest = cur.leftChild.aabb;
-                        currentMax = closest.getMaxZ();
+    /**
+     * As {@link #visitSupporting(Cube, int, Visitor)}, for the base of a box given by its corners and height, so that
+     * the box does not have to be built.
+     */
+    public boolean visitSupporting(int minX, int minY, int maxX, int maxY, int z, int tolerance, Visitor visitor) {
+        if (root == NULL)
+            return true;
+
+        int[] stack = acquireStack();
+        int size = 0;
+        try {
+            int first = root, second = NULL;
+            while (true) {
+                for (int node = first; node != NULL; node = node == first ? second : NULL) {
+                    int b = 6 * node;
+                    if (maxX <= bounds[b + X] || minX >= bounds[b + 3 + X]
+                            || maxY <= bounds[b + Y] || minY >= bounds[b + 3 + Y])
+                        continue;
+                    if (isLeaf(node)) {
+                        int diff = z - bounds[b + 3 + Z];
+                        if (0 <= diff && diff <= tolerance && !visitor.visit(boxes[node]))
+                            return false;
+                    } else if (bounds[b + 3 + Z] >= z - tolerance && bounds[b + Z] < z) {
+                        if (size == stack.length)
+                            stack = Arrays.copyOf(stack, size * 2);
+                        stack[size++] = node;
                     }
-                } else {
-                    if (minBound >= leftChildMinBound && leftChildMaxBound > currentMax)
-                        s.push(cur.leftChild);
-                }
-            }
-
-            if (CubeUtils.overlapXY(aabb, cur.rightChild.aabb)) {
-                int rightChildMaxBound = cur.rightChild.aabb.getMaxZ();
-                int rightChildMinBound = cur.rightChild.aabb.getZ();
-                if (cur.rightChild.isLeaf()) {
-                    if (minBound >= rightChildMaxBound && rightChildMaxBound > currentMax) {
-                        closest = cur.rightChild.aabb;
-                        currentMax = closest.getMaxZ();
-                    }
-                } else {
-                    if (minBound >= rightChildMinBound && rightChildMaxBound > currentMax)
-                        s.push(cur.rightChild);
                 }
+                if (size == 0)
+                    return true;
+                int cur = stack[--size];
+                first = left[cur];
+                second = right[cur];
             }
+        } finally {
+            releaseStack(stack);
         }
-        return closest;
     }
 
-    public Cube getClosestPrecedentY(Cube aabb) {
-        if (root == null) {
-            return null;
-        }
-
-        int minBound = aabb.getY();
-        int currentMax = 0;
-        Cube closest = null;
-        Stack<Node> s = new Stack<>();
-
-        if (CubeUtils.overlapXZ(aabb, root.aabb)) {
-            int rootMaxBound = root.aabb.getMaxY();
-            int rootMinBound = root.aabb.getY();
-            if (root.isLeaf()) {
-                if (minBound >= rootMaxBound && rootMaxBound > currentMax) {
-                    closest = root.aabb;
-                    currentMax = closest.getMaxY();
-                }
-            } else {
-                if (minBound >= rootMinBound && rootMaxBound > currentMax)
-                    s.push(root);
-            }
-        }
-
-        while (s.size() > 0) {
-            Node cur = s.pop();
-
-            if (CubeUtils.overlapXZ(aabb, cur.leftChild.aabb)) {
-                int leftChildMaxBound = cur.leftChild.aabb.getMaxY();
-                int leftChildMinBound = cur.leftChild.aabb.getY();
-                if (cur.leftChild.isLeaf()) {
-                    if (minBound >= leftChildMaxBound && leftChildMaxBound > currentMax) {
-                        closest = cur.leftChild.aabb;
-                        currentMax = closest.getMaxY();
-                    }
-                } else {
-                    if (minBound >= leftChildMinBound && leftChildMaxBound > currentMax)
-                        s.push(cur.leftChild);
-                }
-            }
+    public Cube getClosestPrecedentZ(Cube aabb) {
+        return getClosest(aabb, Z, false);
+    }
 
-            if (CubeUtils.overlapXZ(aabb, cur.rightChild.aabb)) {
-                int rightChildMaxBound = cur.rightChild.aabb.getMaxY();
-                int rightChildMinBound = cur.rightChild.aabb.getY();
-                if (cur.rightChild.isLeaf()) {
-                    if (minBound >= rightChildMaxBound && rightChildMaxBound > currentMax) {
-                        closest = cur.rightChild.aabb;
-                        currentMax = closest.getMaxY();
-                    }
-                } else {
-                    if (minBound >= rightChildMinBound && rightChildMaxBound > currentMax)
-                        s.push(cur.rightChild);
-                }
-            }
-        }
-        return closest;
+    public Cube getClosestPrecedentY(Cube aabb) {
+        return getClosest(aabb, Y, false);
     }
 
     public Cube getClosestPrecedentX(Cube aabb) {
-        if (root == null) {
-            return null;
-        }
-
-        int minBound = aabb.getX();
-        int currentMax = 0;
-        Cube closest = null;
-        Stack<Node> s = new Stack<>();
-
-        if (CubeUtils.overlapYZ(aabb, root.aabb)) {
-            int rootMaxBound = root.aabb.getMaxX();
-            int rootMinBound = root.aabb.getX();
-            if (root.isLeaf()) {
-                if (minBound >= rootMaxBound && rootMaxBound > currentMax) {
-                    closest = root.aabb;
-                    currentMax = closest.getMaxX();
-                }
-            } else {
-                if (minBound >= rootMinBound && rootMaxBound > currentMax)
-                    s.push(root);
-            }
-        }
-
-        while (s.size() > 0) {
-            Node cur = s.pop();
-
-            if (CubeUtils.overlapYZ(aabb, cur.leftChild.aabb)) {
-                int leftChildMaxBound = cur.leftChild.aabb.getMaxX();
-                int leftChildMinBound = cur.leftChild.aabb.getX();
-                if (cur.leftChild.isLeaf()) {
-                    if (minBound >= leftChildMaxBound && leftChildMaxBound > currentMax) {
-                        closest = cur.leftChild.aabb;
-                        currentMax = closest.getMaxX();
-                    }
-                } else {
-                    if (minBound >= leftChildMinBound && leftChildMaxBound > currentMax)
-                        s.push(cur.leftChild);
-                }
-            }
-
-            if (CubeUtils.overlapYZ(aabb, cur.rightChild.aabb)) {
-                int rightChildMaxBound = cur.rightChild.aabb.getMaxX();
-                int rightChildMinBound = cur.rightChild.aabb.getX();
-                if (cur.rightChild.isLeaf()) {
-                    if (minBound >= rightChildMaxBound && rightChildMaxBound > currentMax) {
-                        closest = cur.rightChild.aabb;
-                        currentMax = closest.getMaxX();
-                    }
-                } else {
-                    if (minBound >= rightChildMinBound && rightChildMaxBound > currentMax)
-                        s.push(cur.rightChild);
-                }
-            }
-        }
-
-        return closest;
+        return getClosest(aabb, X, false);
     }
 
     public Cube getClosestSuccessorZ(Cube aabb) {
-        if (root == null) {
-            return null;
-        }
-
-        int maxBound = aabb.getMaxZ();
-        int currentMin = Integer.MAX_VALUE;
-        Cube closest = null;
-        Stack<Node> s = new Stack<>();
-
-        if (CubeUtils.overlapXY(aabb, root.aabb)) {
-            int rootMaxBound = root.aabb.getMaxZ();
-            int rootMinBound = root.aabb.getZ();
-            if (root.isLeaf()) {
-                if (maxBound <= rootMinBound && rootMinBound < currentMin) {
-                    closest = root.aabb;
-                    currentMin = closest.getZ();
-                }
-            } else {
-                if (maxBound <= rootMaxBound && rootMinBound < currentMin)
-                    s.push(root);
-            }
-        }
-
-        while (s.size() > 0) {
-            Node cur = s.pop();
+        return getClosest(aabb, Z, true);
+    }
 
-            if (CubeUtils.overlapXY(aabb, cur.leftChild.aabb)) {
-                int leftChildMaxBound = cur.leftChild.aabb.getMaxZ();
-                int leftChildMinBound = cur.leftChild.aabb.getZ();
-                if (cur.leftChild.isLeaf()) {
-                    if (maxBound <= leftChildMinBound && leftChildMinBound < currentMin) {
-                        closest = cur.leftChild.aabb;
-                        currentMin = closest.getZ();
-                    }
-                } else {
-                    if (maxBound <= leftChildMaxBound && leftChildMinBound < currentMin)
-                        s.push(cur.leftChild);
-                }
-            }
+    public Cube getClosestSuccessorY(Cube aabb) {
+        return getClosest(aabb, Y, true);
+    }
 
-            if (CubeUtils.overlapXY(aabb, cur.rightChild.aabb)) {
-                int rightChildMaxBound = cur.rightChild.aabb.getMaxZ();
-                int rightChildMinBound = cur.rightChild.aabb.getZ();
-                if (cur.rightChild.isLeaf()) {
-                    if (maxBound <= rightChildMinBound && rightChildMinBound < currentMin) {
-                        closest = cur.rightChild.aabb;
-                        currentMin = closest.getZ();
-                    }
-                } else {
-                    if (maxBound <= rightChildMaxBound && rightChildMinBound < currentMin)
-                        s.push(cur.rightChild);
-                }
-            }
-        }
-        return closest;
+    public Cube getClosestSuccessorX(Cube aabb) {
+        return getClosest(aabb, X, true);
     }
 
-    public Cube getClosestSuccessorY(Cube aabb) {
-        if (root == null) {
+    /**
+     * Among the boxes overlapping the given one on the two other axes, the one that starts closest after its end
+     * along the axis (successor) or that ends closest before its start (precedent). Null if there is none.
+     */
+    public Cube getClosest(Cube aabb, int axis, boolean successor) {
+        if (axis < X || axis > Z)
+            throw new IllegalArgumentException("Unknown axis " + axis);
+        if (root == NULL)
             return null;
-        }
 
-        int maxBound = aabb.getMaxY();
-        int currentMin = Integer.MAX_VALUE;
-        Cube closest = null;
-        Stack<Node> s = new Stack<>();
-
-        if (CubeUtils.overlapXZ(aabb, root.aabb)) {
-            int rootMaxBound = root.aabb.getMaxY();
-            int rootMinBound = root.aabb.getY();
-            if (root.isLeaf()) {
-                if (maxBound <= rootMinBound && rootMinBound < currentMin) {
-                    closest = root.aabb;
-                    currentMin = closest.getY();
+        // a precedent is searched as a successor along the mirrored axis, where positions are negated
+        int start = successor ? max(aabb, axis) : -min(aabb, axis);
+        // a precedent must end after 0
+        int closestStart = successor ? Integer.MAX_VALUE : 0;
+        int closest = NULL;
+        int[] stack = acquireStack();
+        int size = 0;
+        try {
+            // the root first, then the children of every node popped
+            int first = root, second = NULL;
+            while (true) {
+                for (int node = first; node != NULL; node = node == first ? second : NULL) {
+                    if (!overlap(aabb, node, axis))
+                        continue;
+                    int lo = successor ? bounds[6 * node + axis] : -bounds[6 * node + 3 + axis];
+                    int hi = successor ? bounds[6 * node + 3 + axis] : -bounds[6 * node + axis];
+                    if (isLeaf(node)) {
+                        if (start <= lo && lo < closestStart) {
+                            closest = node;
+                            closestStart = lo;
+                        }
+                    } else if (start <= hi && lo < closestStart) {
+                        if (size == stack.length)
+                            stack = Arrays.copyOf(stack, size * 2);
+                        stack[size++] = node;
+                    }
                 }
-            } else {
-                if (maxBound <= rootMaxBound && rootMinBound < currentMin)
-                    s.push(root);
+                if (size == 0)
+                    break;
+                int cur = stack[--size];
+                first = left[cur];
+                second = right[cur];
             }
+        } finally {
+            releaseStack(stack);
         }
+        return closest == NULL ? null : boxes[closest];
+    }
 
-        while (s.size() > 0) {
-            Node cur = s.pop();
+    /**
+     * The traversal stack of the calling thread. A query started by a visitor while another one is running on the
+     * same thread gets a stack of its own.
+     */
+    private static int[] acquireStack() {
+        Traversal traversal = TRAVERSAL.get();
+        return traversal.depth++ == 0 ? traversal.stack : new int[32];
+    }
 
-            if (CubeUtils.overlapXZ(aabb, cur.leftChild.aabb)) {
-                int leftChildMaxBound = cur.leftChild.aabb.getMaxY();
-                int leftChildMinBound = cur.leftChild.aabb.getY();
-                if (cur.leftChild.isLeaf()) {
-                    if (maxBound <= leftChildMinBound && leftChildMinBound < currentMin) {
-                        closest = cur.leftChild.aabb;
-                        currentMin = closest.getY();
-                    }
-                } else {
-                    if (maxBound <= leftChildMaxBound && leftChildMinBound < currentMin)
-                        s.push(cur.leftChild);
-                }
-            }
+    /**
+     * Ends the query that acquired the stack, keeping it for the next one if it grew.
+     */
+    private static void releaseStack(int[] stack) {
+        Traversal traversal = TRAVERSAL.get();
+        if (--traversal.depth == 0)
+            traversal.stack = stack;
+    }
 
-            if (CubeUtils.overlapXZ(aabb, cur.rightChild.aabb)) {
-                int rightChildMaxBound = cur.rightChild.aabb.getMaxY();
-                int rightChildMinBound = cur.rightChild.aabb.getY();
-                if (cur.rightChild.isLeaf()) {
-                    if (maxBound <= rightChildMinBound && rightChildMinBound < currentMin) {
-                        closest = cur.rightChild.aabb;
-                        currentMin = closest.getY();
-                    }
-                } else {
-                    if (maxBound <= rightChildMaxBound && rightChildMinBound < currentMin)
-                        s.push(cur.rightChild);
-                }
-            }
-        }
-        return closest;
+    private int allocate() {
+        int n;
+        if (freeList != NULL) {
+            n = freeList;
+            freeList = parent[n];
+        } else {
+            if (numNodes == parent.length)
+                grow();
+            n = numNodes++;
+        }
+        parent[n] = NULL;
+        left[n] = NULL;
+        right[n] = NULL;
+        height[n] = 0;
+        return n;
     }
 
-    public Cube getClosestSuccessorX(Cube aabb) {
-        if (root == null) {
-            return null;
-        }
+    private void free(int n) {
+        boxes[n] = null;
+        height[n] = -1;
+        parent[n] = freeList;
+        freeList = n;
+    }
 
-        int maxBound = aabb.getMaxX();
-        int currentMin = Integer.MAX_VALUE;
-        Cube closest = null;
-        Stack<Node> s = new Stack<>();
-
-        if (CubeUtils.overlapYZ(aabb, root.aabb)) {
-            int rootMaxBound = root.aabb.getMaxX();
-            int rootMinBound = root.aabb.getX();
-            if (root.isLeaf()) {
-                if (maxBound <= rootMinBound && rootMinBound < currentMin) {
-                    closest = root.aabb;
-                    currentMin = closest.getX();
-                }
-            } else {
-                if (maxBound <= rootMaxBound && rootMinBound < currentMin)
-                    s.push(root);
-            }
-        }
+    private void grow() {
+        int capacity = parent.length * 2;
+        bounds = Arrays.copyOf(bounds, 6 * capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        height = Arrays.copyOf(height, capacity);
+        boxes = Arrays.copyOf(boxes, capacity);
+    }
 
-        while (s.size() > 0) {
-            Node cur = s.pop();
+    private boolean isLeaf(int n) {
+        return left[n] == NULL;
+    }
 
-            if (CubeUtils.overlapYZ(aabb, cur.leftChild.aabb)) {
-                int leftChildMaxBound = cur.leftChild.aabb.getMaxX();
-                int leftChildMinBound = cur.leftChild.aabb.getX();
-                if (cur.leftChild.isLeaf()) {
-                    if (maxBound <= leftChildMinBound && leftChildMinBound < currentMin) {
-                        closest = cur.leftChild.aabb;
-                        currentMin = closest.getX();
-                    }
-                } else {
-                    if (maxBound <= leftChildMaxBound && leftChildMinBound < currentMin)
-                        s.push(cur.leftChild);
-                }
-            }
+    private void setBounds(int n, Cube aabb) {
+        int b = 6 * n;
+        bounds[b] = aabb.getX();
+        bounds[b + 1] = aabb.getY();
+        bounds[b + 2] = aabb.getZ();
+        bounds[b + 3] = aabb.getMaxX();
+        bounds[b + 4] = aabb.getMaxY();
+        bounds[b + 5] = aabb.getMaxZ();
+    }
 
-            if (CubeUtils.overlapYZ(aabb, cur.rightChild.aabb)) {
-                int rightChildMaxBound = cur.rightChild.aabb.getMaxX();
-                int rightChildMinBound = cur.rightChild.aabb.getX();
-                if (cur.rightChild.isLeaf()) {
-                    if (maxBound <= rightChildMinBound && rightChildMinBound < currentMin) {
-                        closest = cur.rightChild.aabb;
-                        currentMin = closest.getX();
-                    }
-                } else {
-                    if (maxBound <= rightChildMaxBound && rightChildMinBound < currentMin)
-                        s.push(cur.rightChild);
-                }
-            }
+    /**
+     * Sets the bounds of n to the box enclosing those of a and b.
+     */
+    private void union(int n, int a, int b) {
+        int bn = 6 * n, ba = 6 * a, bb = 6 * b;
+        for (int i = 0; i < 3; i++) {
+            bounds[bn + i] = Math.min(bounds[ba + i], bounds[bb + i]);
+            bounds[bn + 3 + i] = Math.max(bounds[ba + 3 + i], bounds[bb + 3 + i]);
         }
-        return closest;
     }
 
-    public Node find(Cube aabb) {
-        return traverseFind(new Node(aabb), root);
+    private long surfaceArea(int n) {
+        int b = 6 * n;
+        long w = bounds[b + 3] - bounds[b], d = bounds[b + 4] - bounds[b + 1], h = bounds[b + 5] - bounds[b + 2];
+        return 2 * (w * h + d * h + w * d);
     }
 
-    public Node traverseFind(Node aabb, Node n) {
-        if (n.equals(aabb)) return n;
-        if (n.isLeaf()) return null;
-        Node l = traverseFind(aabb, n.leftChild);
-        if (l != null) return l;
-        return traverseFind(aabb, n.rightChild);
+    /**
+     * Surface area of the box enclosing a and b.
+     */
+    private long combinedSurfaceArea(int a, int b) {
+        int ba = 6 * a, bb = 6 * b;
+        long w = Math.max(bounds[ba + 3], bounds[bb + 3]) - Math.min(bounds[ba], bounds[bb]);
+        long d = Math.max(bounds[ba + 4], bounds[bb + 4]) - Math.min(bounds[ba + 1], bounds[bb + 1]);
+        long h = Math.max(bounds[ba + 5], bounds[bb + 5]) - Math.min(bounds[ba + 2], bounds[bb + 2]);
+        return 2 * (w * h + d * h + w * d);
     }
 
-    public void remove(Cube aabb) {
-        Node leaf = find(aabb);
+    private boolean overlap(Cube aabb, int n) {
+        return overlap(aabb, n, X) && overlapOn(aabb, n, X);
+    }
 
-        if (leaf.equals(root)) {
-            root = null;
-            return;
+    /**
+     * Whether the box and the node overlap on the two axes other than the given one.
+     */
+    private boolean overlap(Cube aabb, int n, int axis) {
+        for (int i = 0; i < 3; i++) {
+            if (i != axis && !overlapOn(aabb, n, i))
+                return false;
         }
+        return true;
+    }
 
-        Node parent = leaf.parent;
-        Node grandParent = parent.parent;
-        Node sibling = (parent.leftChild == leaf) ? parent.rightChild : parent.leftChild;
-
-        if (grandParent != null) {
-            // Destroy parent and connect sibling to grandParent.
-            if (grandParent.leftChild == parent) {
-                grandParent.leftChild = sibling;
-            } else {
-                grandParent.rightChild = sibling;
-            }
-            sibling.parent = grandParent;
-
-            // Adjust ancestor bounds.
-            Node index = grandParent;
-            while (index != null) {
-                index = balance(index);
-
-                Node child1 = index.leftChild;
-                Node child2 = index.rightChild;
+    private boolean overlapOn(Cube aabb, int n, int axis) {
+        return !(max(aabb, axis) <= bounds[6 * n + axis] || min(aabb, axis) >= bounds[6 * n + 3 + axis]);
+    }
 
-                index.aabb = child1.aabb.minimumBoundingCuboid(child2.aabb);
-                index.height = 1 + Math.max(child1.height, child2.height);
+    private static int min(Cube aabb, int axis) {
+        return axis == X ? aabb.getX() : axis == Y ? aabb.getY() : aabb.getZ();
+    }
 
-                index = index.parent;
-            }
-        } else {
-            root = sibling;
-            sibling.parent = null;
-        }
+    private static int max(Cube aabb, int axis) {
+        return axis == X ? aabb.getMaxX() : axis == Y ? aabb.getMaxY() : aabb.getMaxZ();
     }
-}
\ No newline at end of file
+}
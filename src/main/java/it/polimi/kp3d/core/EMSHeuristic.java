@@ -3,38 +3,225 @@ package it.polimi.kp3d.core;
 import it.polimi.kp3d.domain.Cube;
 import it.polimi.kp3d.domain.Item;
 import it.polimi.kp3d.domain.Placement;
+import it.polimi.utils.SubsetEnumerator;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.function.IntPredicate;
 
 public class EMSHeuristic {
 
+    // the spaces a packing is built on, reused across calls so that their arrays are allocated once per thread
+    private static final ThreadLocal<EmptyMaximalSpaces> WORKSPACE = ThreadLocal.withInitial(EmptyMaximalSpaces::new);
+    private static final ThreadLocal<SupportedArea> SUPPORT = ThreadLocal.withInitial(SupportedArea::new);
+
+    /**
+     * Packs the candidates greedily, the most rewarding item that fits first.
+     * <p>
+     * Placing an item only splits the space it consumes into smaller ones, so an item that does not fit in any space
+     * now will not fit later either. The greedy choice is then the next item by decreasing reward that still fits,
+     * and every item's placement is looked up once, when it reaches the head of the queue. Items with the same reward
+     * keep the iteration order of the candidates.
+     * <p>
+     * With a minimum support an item can also be rejected because nothing below holds it, and an item placed later
+     * can provide that support. Such items are deferred and tried again, most rewarding first, after every placement,
+     * so the packing is the same as picking at every step the most rewarding item that can be placed.
+     */
     public static List<Placement> getPlacements(KP3DState state, Set<Item> candidates) {
-        Set<Item> items = new HashSet<>(candidates);
-        Set<Cube> emptyMaximalSpaces = new HashSet<>(state.getEmptyMaximalSpaces());
-
-        List<Placement> placements = new ArrayList<>();
-        while (!items.isEmpty()) {
-            Placement bestPlacement = null;
-            for (Item item : items) {
-                Placement placement = getPlacement(item, emptyMaximalSpaces);
-                if (placement != null) {
-                    if (bestPlacement ==  null || bestPlacement.getItem().getReward() < placement.getItem().getReward())
-                        bestPlacement = placement;
-                }
-            }
-            if (bestPlacement == null)
+        Item[] items = byReward(candidates);
+        return getPlacements(state, items, SubsetEnumerator.all(items.length));
+    }
+
+    /**
+     * Packs the items of the subset greedily, the subset being a mask over items sorted by decreasing reward as
+     * returned by byReward().
+     */
+    public static List<Placement> getPlacements(KP3DState state, Item[] items, long subset) {
+        // the state's spaces are only read until the first placement, copy them to the workspace then
+        EmptyMaximalSpaces emptyMaximalSpaces = state.emptyMaximalSpaces();
+        boolean copied = false;
+
+        List<Placement> placements = new ArrayList<>(Long.bitCount(subset));
+        long deferred = 0;
+        for (long remaining = subset; remaining != 0; remaining &= remaining - 1) {
+            if (emptyMaximalSpaces.isEmpty())
                 break;
-            placements.add(bestPlacement);
-            items.remove(bestPlacement.getItem());
-            KP3DState.updateEmptyMaximalSpaces(bestPlacement, emptyMaximalSpaces);
+            int i = Long.numberOfTrailingZeros(remaining);
+            Placement placement = getPlacement(items[i], emptyMaximalSpaces, state, placements);
+            if (placement == null) {
+                if (mayFitLater(items[i], emptyMaximalSpaces, state))
+                    deferred |= 1L << i;
+                continue;
+            }
+            placements.add(placement);
+            if (!copied) {
+                emptyMaximalSpaces = emptyMaximalSpaces.copyTo(WORKSPACE.get(), false);
+                copied = true;
+            }
+            KP3DState.updateEmptyMaximalSpaces(placement, emptyMaximalSpaces);
+            if (deferred != 0)
+                deferred = placeDeferred(state, items, deferred, emptyMaximalSpaces, placements);
         }
         return placements;
     }
 
-    public static Placement getPlacement(Item item, Set<Cube> emptyMaximalSpaces) {
+    /**
+     * Whether an item that getPlacement() rejected may still be placed after other items: with a minimum support it
+     * may fit in a space and only lack the support below it. Without a minimum support it never fits later.
+     */
+    static boolean mayFitLater(Item item, EmptyMaximalSpaces emptyMaximalSpaces, KP3DState state) {
+        return state.getMinSupport() > 0 && emptyMaximalSpaces.getBestFit(item.getW(), item.getD(), item.getH()) >= 0;
+    }
+
+    /**
+     * Tries the deferred items again, most rewarding first, starting over after every one that is placed, until none
+     * can be. The deferred items are a mask over the items; their placements are added to the list and applied to
+     * the spaces. Returns the items still deferred.
+     */
+    static long placeDeferred(KP3DState state, Item[] items, long deferred, EmptyMaximalSpaces emptyMaximalSpaces,
+                              List<Placement> placements) {
+        long remaining = deferred;
+        while (remaining != 0) {
+            int i = Long.numberOfTrailingZeros(remaining);
+            Placement placement = getPlacement(items[i], emptyMaximalSpaces, state, placements);
+            if (placement == null) {
+                remaining &= remaining - 1;
+                continue;
+            }
+            placements.add(placement);
+            KP3DState.updateEmptyMaximalSpaces(placement, emptyMaximalSpaces);
+            deferred &= ~(1L << i);
+            remaining = deferred;
+        }
+        return deferred;
+    }
+
+    /**
+     * The items by decreasing reward, ties in iteration order. Masks over them are limited to
+     * {@link SubsetEnumerator#MAX_ELEMENTS} items.
+     */
+    public static Item[] byReward(Collection<Item> candidates) {
+        Item[] items = candidates.toArray(new Item[0]);
+        Arrays.sort(items, Comparator.comparingDouble(Item::getReward).reversed());
+        return items;
+    }
+
+    /**
+     * Places the item in the smallest space it fits in, as it is if possible and rotated otherwise.
+     */
+    public static Placement getPlacement(Item item, EmptyMaximalSpaces emptyMaximalSpaces) {
+        int slot = emptyMaximalSpaces.getBestFit(item.getW(), item.getD(), item.getH());
+        if (slot < 0)
+            return null;
+        return new Placement(item, orient(item, emptyMaximalSpaces, slot), emptyMaximalSpaces.get(slot));
+    }
+
+    /**
+     * As getPlacement(Item, EmptyMaximalSpaces), but if the state has a minimum support the item only goes where it
+     * rests on enough of the floor, of the cubes placed in the state and of the pending placements, made on the
+     * spaces after the state but not applied to it yet. The placed cubes below a space are found with a query of
+     * their tree, while the pending placements, at most one per item of the batch, are scanned.
+     */
+    static Placement getPlacement(Item item, EmptyMaximalSpaces emptyMaximalSpaces, KP3DState state,
+                                  List<Placement> pending) {
+        if (state.getMinSupport() == 0)
+            return getPlacement(item, emptyMaximalSpaces);
+        SupportedArea support = SUPPORT.get();
+        support.start(item, emptyMaximalSpaces, state, pending);
+        int slot = emptyMaximalSpaces.getBestFit(item.getW(), item.getD(), item.getH(), support);
+        support.end();
+        if (slot < 0)
+            return null;
+        return new Placement(item, orient(item, emptyMaximalSpaces, slot), emptyMaximalSpaces.get(slot));
+    }
+
+    /**
+     * The cube of the item in the corner of the space, as it is if it fits and rotated otherwise.
+     */
+    private static Cube orient(Item item, EmptyMaximalSpaces emptyMaximalSpaces, int slot) {
+        int x = emptyMaximalSpaces.getX(slot), y = emptyMaximalSpaces.getY(slot), z = emptyMaximalSpaces.getZ(slot);
+        if (emptyMaximalSpaces.getWidth(slot) >= item.getW() && emptyMaximalSpaces.getDepth(slot) >= item.getD())
+            return new Cube(item.getW(), item.getD(), item.getH(), x, y, z);
+        return new Cube(item.getD(), item.getW(), item.getH(), x, y, z);
+    }
+
+    /**
+     * Tells whether the item, oriented as by orient() in the corner of a space, rests on enough of the floor, of the
+     * cubes placed in the state and of the pending placements. It visits the placed cubes below the item and sums the
+     * area it rests on until it reaches the required one. One instance per thread is reused by every placement, so
+     * the check allocates nothing.
+     */
+    private static final class SupportedArea implements IntPredicate, AABBTree.Visitor {
+        Item item;
+        EmptyMaximalSpaces emptyMaximalSpaces;
+        KP3DState state;
+        List<Placement> pending;
+        // the base of the item being tested
+        int x, y, z, maxX, maxY;
+        long required;
+        long area;
+
+        void start(Item item, EmptyMaximalSpaces emptyMaximalSpaces, KP3DState state, List<Placement> pending) {
+            this.item = item;
+            this.emptyMaximalSpaces = emptyMaximalSpaces;
+            this.state = state;
+            this.pending = pending;
+        }
+
+        /**
+         * Drops the references, so that the thread does not keep them alive.
+         */
+        void end() {
+            item = null;
+            emptyMaximalSpaces = null;
+            state = null;
+            pending = null;
+        }
+
+        @Override
+        public boolean test(int slot) {
+            z = emptyMaximalSpaces.getZ(slot);
+            if (z == 0)
+                return true;
+            x = emptyMaximalSpaces.getX(slot);
+            y = emptyMaximalSpaces.getY(slot);
+            int w = item.getW(), d = item.getD();
+            if (emptyMaximalSpaces.getWidth(slot) < w || emptyMaximalSpaces.getDepth(slot) < d) {
+                w = item.getD();
+                d = item.getW();
+            }
+            maxX = x + w;
+            maxY = y + d;
+            required = (long) Math.ceil(state.getMinSupport() * w * d);
+            area = 0;
+            for (int i = 0; i < pending.size() && area < required; i++) {
+                Cube below = pending.get(i).getCube();
+                if (below.getMaxZ() == z)
+                    area += overlapArea(below);
+            }
+            if (area < required)
+                state.placedCubes().visitSupporting(x, y, maxX, maxY, z, 0, this);
+            return area >= required;
+        }
+
+        @Override
+        public boolean visit(Cube box) {
+            area += overlapArea(box);
+            return area < required;
+        }
+
+        private long overlapArea(Cube box) {
+            long w = Math.min(maxX, box.getMaxX()) - Math.max(x, box.getX());
+            long d = Math.min(maxY, box.getMaxY()) - Math.max(y, box.getY());
+            return w > 0 && d > 0 ? w * d : 0;
+        }
+    }
+
+    public static Placement getPlacement(Item item, Iterable<Cube> emptyMaximalSpaces) {
         long bestResidualVolume = Long.MAX_VALUE;
         Cube bestSpace = null, bestCube = null;
         for (Cube space : emptyMaximalSpaces) {
@@ -0,0 +1,420 @@
+package it.polimi.kp3d.core;
+
+import it.polimi.kp3d.domain.Cube;
+import it.polimi.kp3d.domain.Placement;
+import it.polimi.utils.RandomStreams;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
+
+/**
+ * The empty maximal spaces of a container, indexed by an {@link AABBTree} so that the spaces around a region can be
+ * found without scanning all of them.
+ * <p>
+ * The spaces themselves are stored column-wise, one int array per coordinate and size, in slots that are compacted
+ * by moving the last space into the hole left by a removal. A separate array keeps the slots sorted by volume, ties
+ * broken by position, so that lookups are binary searches and the smallest space an item fits in is found by scanning
+ * only the spaces at least as large as the item. Copies are plain array copies.
+ */
+public class EmptyMaximalSpaces implements Iterable<Cube> {
+
+    /**
+     * Notified of every space added to or removed from the set.
+     */
+    interface Listener {
+        void spaceAdded(Cube space);
+
+        void spaceRemoved(Cube space);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private AABBTree index;
+    private int size;
+    // xor of the hashes of the spaces
+    private long hash;
+    private int[] x, y, z, w, d, h;
+    private long[] volume;
+    // the slots by increasing volume, ties broken by position
+    private int[] order;
+    // the handle of the space of every slot in the index
+    private int[] leaf;
+
+    public EmptyMaximalSpaces() {
+        this.index = new AABBTree();
+        this.x = new int[INITIAL_CAPACITY];
+        this.y = new int[INITIAL_CAPACITY];
+        this.z = new int[INITIAL_CAPACITY];
+        this.w = new int[INITIAL_CAPACITY];
+        this.d = new int[INITIAL_CAPACITY];
+        this.h = new int[INITIAL_CAPACITY];
+        this.volume = new long[INITIAL_CAPACITY];
+        this.order = new int[INITIAL_CAPACITY];
+        this.leaf = new int[INITIAL_CAPACITY];
+    }
+
+    public EmptyMaximalSpaces copy() {
+        return copyTo(new EmptyMaximalSpaces(), true);
+    }
+
+    /**
+     * Overwrites the target with the spaces of this set, reusing its arrays when they are large enough, and returns
+     * it. Without the index the copy finds the spaces to prune by scanning the columns, which allocates nothing and
+     * is cheaper than cloning the tree when the copy is short-lived. An indexed copy of an unindexed set bulk-loads
+     * a new index.
+     */
+    public EmptyMaximalSpaces copyTo(EmptyMaximalSpaces target, boolean indexed) {
+        if (!indexed)
+            target.index = null;
+        else if (index != null)
+            target.index = index.clone();
+        else
+            target.index = AABBTree.build(asList());
+        target.size = size;
+        target.hash = hash;
+        if (target.x.length < size) {
+            int capacity = x.length;
+            target.x = new int[capacity];
+            target.y = new int[capacity];
+            target.z = new int[capacity];
+            target.w = new int[capacity];
+            target.d = new int[capacity];
+            target.h = new int[capacity];
+            target.volume = new long[capacity];
+            target.order = new int[capacity];
+            target.leaf = new int[capacity];
+        }
+        System.arraycopy(x, 0, target.x, 0, size);
+        System.arraycopy(y, 0, target.y, 0, size);
+        System.arraycopy(z, 0, target.z, 0, size);
+        System.arraycopy(w, 0, target.w, 0, size);
+        System.arraycopy(d, 0, target.d, 0, size);
+        System.arraycopy(h, 0, target.h, 0, size);
+        System.arraycopy(volume, 0, target.volume, 0, size);
+        System.arraycopy(order, 0, target.order, 0, size);
+        if (index != null) {
+            System.arraycopy(leaf, 0, target.leaf, 0, size);
+        } else if (indexed) {
+            // the index was built from the slots in order
+            for (int slot = 0; slot < size; slot++)
+                target.leaf[slot] = slot;
+        }
+        return target;
+    }
+
+    public boolean add(Cube space) {
+        if (!insert(space.getWidth(), space.getDepth(), space.getHeight(), space.getX(), space.getY(), space.getZ()))
+            return false;
+        if (index != null)
+            leaf[size - 1] = index.insert(space);
+        return true;
+    }
+
+    public boolean remove(Cube space) {
+        int position = search(space.getVolume(), space.getZ(), space.getY(), space.getX(), space.getWidth(),
+                space.getDepth());
+        if (position < 0)
+            return false;
+        if (index != null)
+            index.remove(leaf[order[position]]);
+        removeAt(position);
+        return true;
+    }
+
+    private boolean insert(int w, int d, int h, int x, int y, int z) {
+        long volume = (long) w * d * h;
+        int position = search(volume, z, y, x, w, d);
+        if (position >= 0)
+            return false;
+        position = -position - 1;
+        if (size == this.x.length)
+            grow();
+        int slot = size++;
+        this.x[slot] = x;
+        this.y[slot] = y;
+        this.z[slot] = z;
+        this.w[slot] = w;
+        this.d[slot] = d;
+        this.h[slot] = h;
+        this.volume[slot] = volume;
+        hash ^= hash(w, d, h, x, y, z);
+        System.arraycopy(order, position, order, position + 1, size - 1 - position);
+        order[position] = slot;
+        return true;
+    }
+
+    private void removeAt(int position) {
+        int slot = order[position];
+        hash ^= hash(w[slot], d[slot], h[slot], x[slot], y[slot], z[slot]);
+        System.arraycopy(order, position + 1, order, position, size - 1 - position);
+        int last = --size;
+        if (slot != last) {
+            x[slot] = x[last];
+            y[slot] = y[last];
+            z[slot] = z[last];
+            w[slot] = w[last];
+            d[slot] = d[last];
+            h[slot] = h[last];
+            volume[slot] = volume[last];
+            leaf[slot] = leaf[last];
+            order[search(volume[slot], z[slot], y[slot], x[slot], w[slot], d[slot])] = slot;
+        }
+    }
+
+    /**
+     * Returns the slot of the smallest space that can hold an item of the given size, either as it is or rotated by
+     * 90 degrees around the vertical axis, or -1 if it fits nowhere. Spaces of equal volume are ordered by position.
+     */
+    public int getBestFit(int w, int d, int h) {
+        return getBestFit(w, d, h, null);
+    }
+
+    /**
+     * As getBestFit(int, int, int), skipping the slots the filter rejects. A null filter accepts every slot.
+     */
+    int getBestFit(int w, int d, int h, IntPredicate filter) {
+        long itemVolume = (long) w * d * h;
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (volume[order[mid]] < itemVolume)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        for (int i = lo; i < size; i++) {
+            int slot = order[i];
+            if (this.h[slot] >= h && (this.w[slot] >= w && this.d[slot] >= d
+                    || this.w[slot] >= d && this.d[slot] >= w) && (filter == null || filter.test(slot)))
+                return slot;
+        }
+        return -1;
+    }
+
+    public Cube get(int slot) {
+        return new Cube(w[slot], d[slot], h[slot], x[slot], y[slot], z[slot]);
+    }
+
+    public int getX(int slot) {
+        return x[slot];
+    }
+
+    public int getY(int slot) {
+        return y[slot];
+    }
+
+    public int getZ(int slot) {
+        return z[slot];
+    }
+
+    public int getWidth(int slot) {
+        return w[slot];
+    }
+
+    public int getDepth(int slot) {
+        return d[slot];
+    }
+
+    public int getHeight(int slot) {
+        return h[slot];
+    }
+
+    public long getVolume(int slot) {
+        return volume[slot];
+    }
+
+    /**
+     * Zobrist hash of the set: the xor of a random-looking hash of every space, kept up to date as spaces come and go.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    public boolean contains(Cube space) {
+        return search(space.getVolume(), space.getZ(), space.getY(), space.getX(), space.getWidth(),
+                space.getDepth()) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private List<Cube> asList() {
+        List<Cube> spaces = new ArrayList<>(size);
+        for (int slot = 0; slot < size; slot++)
+            spaces.add(get(slot));
+        return spaces;
+    }
+
+    @Override
+    public Iterator<Cube> iterator() {
+        return new Iterator<Cube>() {
+            private int slot;
+
+            @Override
+            public boolean hasNext() {
+                return slot < size;
+            }
+
+            @Override
+            public Cube next() {
+                if (slot >= size)
+                    throw new NoSuchElementException();
+                return get(slot++);
+            }
+        };
+    }
+
+    /**
+     * Binary search of the sorted slots: the position of the space with the given key, or -(insertion point) - 1.
+     * The width, depth and position determine the height once the volume is known.
+     */
+    private int search(long volume, int z, int y, int x, int w, int d) {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int slot = order[mid];
+            int c = Long.compare(this.volume[slot], volume);
+            if (c == 0) c = Integer.compare(this.z[slot], z);
+            if (c == 0) c = Integer.compare(this.y[slot], y);
+            if (c == 0) c = Integer.compare(this.x[slot], x);
+            if (c == 0) c = Integer.compare(this.w[slot], w);
+            if (c == 0) c = Integer.compare(this.d[slot], d);
+            if (c < 0)
+                lo = mid + 1;
+            else if (c > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    private static long hash(int w, int d, int h, int x, int y, int z) {
+        return RandomStreams.mix(((long) x << 42) ^ ((long) y << 21) ^ z, ((long) w << 42) ^ ((long) d << 21) ^ h);
+    }
+
+    private void grow() {
+        int capacity = x.length * 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        w = Arrays.copyOf(w, capacity);
+        d = Arrays.copyOf(d, capacity);
+        h = Arrays.copyOf(h, capacity);
+        volume = Arrays.copyOf(volume, capacity);
+        order = Arrays.copyOf(order, capacity);
+        leaf = Arrays.copyOf(leaf, capacity);
+    }
+
+    public void update(Placement placement) {
+        update(placement, null);
+    }
+
+    /**
+     * Splits the space of the placement around the placed cube and drops the spaces contained in another one.
+     * <p>
+     * The spaces are kept so that none contains another, so after a split only pairs that involve a new space need
+     * checking, and a space can only contain the spaces it overlaps: the index returns them.
+     */
+    void update(Placement placement, Listener listener) {
+        Cube placementCube = placement.getCube();
+        Cube placementSpace = placement.getSpace();
+        if (placementSpace.getX() != placementCube.getX()
+                || placementSpace.getY() != placementCube.getY()
+                || placementSpace.getZ() != placementCube.getZ())
+            throw new IllegalArgumentException("Illegal position for splitting");
+        remove(placementSpace, listener);
+        int x = placementSpace.getX(), y = placementSpace.getY(), z = placementSpace.getZ();
+        int w = placementSpace.getWidth(), d = placementSpace.getDepth(), h = placementSpace.getHeight();
+        int cw = placementCube.getWidth(), cd = placementCube.getDepth(), ch = placementCube.getHeight();
+        boolean top = h - ch > 1 && add(w, d, h - ch, x, y, z + ch, listener);
+        boolean front = d - cd > 1 && add(w, d - cd, ch, x, y + cd, z, listener);
+        boolean right = w - cw > 1 && add(w - cw, cd, ch, x + cw, y, z, listener);
+        if (top)
+            prune(w, d, h - ch, x, y, z + ch, listener);
+        if (front)
+            prune(w, d - cd, ch, x, y + cd, z, listener);
+        if (right)
+            prune(w - cw, cd, ch, x + cw, y, z, listener);
+    }
+
+    private boolean add(int w, int d, int h, int x, int y, int z, Listener listener) {
+        if (index == null && listener == null)
+            return insert(w, d, h, x, y, z);
+        return add(new Cube(w, d, h, x, y, z), listener);
+    }
+
+    /**
+     * Removes the spaces the given one contains, or the given one if another space contains it.
+     */
+    private void prune(int w, int d, int h, int x, int y, int z, Listener listener) {
+        long volume = (long) w * d * h;
+        if (search(volume, z, y, x, w, d) < 0)
+            return;
+        if (index != null) {
+            Cube space = new Cube(w, d, h, x, y, z);
+            for (Cube other : index.getOverlapping(space)) {
+                if (space.equals(other))
+                    continue;
+                if (space.contains(other)) {
+                    remove(other, listener);
+                } else if (other.contains(space)) {
+                    remove(space, listener);
+                    return;
+                }
+            }
+            return;
+        }
+        int maxX = x + w, maxY = y + d, maxZ = z + h;
+        int slot = 0;
+        while (slot < size) {
+            int otherMaxX = this.x[slot] + this.w[slot];
+            int otherMaxY = this.y[slot] + this.d[slot];
+            int otherMaxZ = this.z[slot] + this.h[slot];
+            if (this.x[slot] == x && this.y[slot] == y && this.z[slot] == z
+                    && otherMaxX == maxX && otherMaxY == maxY && otherMaxZ == maxZ) {
+                slot++;
+            } else if (x <= this.x[slot] && otherMaxX <= maxX && y <= this.y[slot] && otherMaxY <= maxY
+                    && z <= this.z[slot] && otherMaxZ <= maxZ) {
+                // the last space moves into the slot, look at it again
+                remove(slot, listener);
+            } else if (this.x[slot] <= x && maxX <= otherMaxX && this.y[slot] <= y && maxY <= otherMaxY
+                    && this.z[slot] <= z && maxZ <= otherMaxZ) {
+                remove(order[search(volume, z, y, x, w, d)], listener);
+                return;
+            } else {
+                slot++;
+            }
+        }
+    }
+
+    private void remove(int slot, Listener listener) {
+        if (listener == null) {
+            removeAt(search(volume[slot], z[slot], y[slot], x[slot], w[slot], d[slot]));
+            return;
+        }
+        remove(get(slot), listener);
+    }
+
+    private boolean add(Cube space, Listener listener) {
+        if (!add(space))
+            return false;
+        if (listener != null)
+            listener.spaceAdded(space);
+        return true;
+    }
+
+    private void remove(Cube space, Listener listener) {
+        if (remove(space) && listener != null)
+            listener.spaceRemoved(space);
+    }
+}
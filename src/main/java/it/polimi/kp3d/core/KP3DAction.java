@@ -23,4 +23,19 @@ public class KP3DAction implements Action {
     public double getReward() {
         return reward;
     }
+
+    /**
+     * Whether the action can be taken in the state: its items are all still to be packed and the first placement is
+     * inside an empty maximal space of the state. The other placements use spaces left by the earlier ones, so they
+     * cannot be checked without placing them.
+     */
+    public boolean isApplicable(KP3DState state) {
+        for (Placement placement : placements)
+            if (!state.isToPack(placement.getItem()))
+                return false;
+        if (placements.isEmpty())
+            return true;
+        Placement first = placements.get(0);
+        return state.emptyMaximalSpaces().contains(first.getSpace()) && first.getSpace().contains(first.getCube());
+    }
 }
@@ -0,0 +1,17 @@
+package it.polimi.kp3d.core;
+
+import it.polimi.algorithm.core.CachingPolicy;
+import it.polimi.algorithm.core.Policy;
+
+/**
+ * Caches the actions of a KP3D policy by the Zobrist hash of the state, which covers everything a packing decision
+ * depends on. A cached action is only reused if it is applicable to the state, so a collision costs a call to the
+ * policy rather than a wrong action.
+ */
+public class KP3DCachingPolicy extends CachingPolicy {
+
+    public KP3DCachingPolicy(Policy policy, int capacity) {
+        super(policy, state -> ((KP3DState) state).getZobristHash(),
+                (state, action) -> action != null && ((KP3DAction) action).isApplicable((KP3DState) state), capacity);
+    }
+}
@@ -4,8 +4,8 @@ import it.polimi.algorithm.core.InformationSpace;
 import it.polimi.algorithm.domain.Information;
 import it.polimi.algorithm.domain.State;
 import it.polimi.kp3d.domain.Item;
+import it.polimi.kp3d.domain.ItemSet;
 
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Set;
 
@@ -15,7 +15,7 @@ public class KP3DInformationSpace implements InformationSpace {
     public KP3DInformationSpace(LinkedList<Set<Item>> itemBatches) {
         this.itemBatches = new LinkedList<>();
         for (Set<Item> batch : itemBatches)
-            this.itemBatches.add(new HashSet<>(batch));
+            this.itemBatches.add(new ItemSet(batch));
     }
 
     @Override
@@ -23,4 +23,9 @@ public class KP3DInformationSpace implements InformationSpace {
         if (itemBatches.isEmpty()) return null;
         return new KP3DInformation(itemBatches.poll());
     }
+
+    @Override
+    public InformationSpace clone() {
+        return new KP3DInformationSpace(itemBatches);
+    }
 }
@@ -5,32 +5,38 @@ import it.polimi.algorithm.domain.Action;
 import it.polimi.algorithm.domain.State;
 import it.polimi.kp3d.domain.Item;
 import it.polimi.kp3d.domain.Placement;
-import it.polimi.utils.Combination;
+import it.polimi.utils.SubsetEnumerator;
 
 import java.util.List;
-import java.util.Set;
 
 public class KP3DMyopic implements Policy {
 
     @Override
     public Action chooseAction(State state) {
         KP3DState kp3DState = (KP3DState) state;
-        Set<Item> toPack = kp3DState.getItemsToPack();
-        // System.out.println("Evaluating " + toPack.size() + " items");
-        int size = toPack.size();
+        Item[] toPack = EMSHeuristic.byReward(kp3DState.getItemsToPack());
+        // System.out.println("Evaluating " + toPack.length + " items");
+        int size = toPack.length;
+        // no subset of at most i items is worth more than the best prefix of the i most rewarding ones
+        double[] bound = new double[size + 1];
+        double prefix = 0;
+        for (int i = 1; i <= size; i++) {
+            prefix += toPack[i - 1].getReward();
+            bound[i] = Math.max(bound[i - 1], prefix);
+        }
         double bestReward = Double.NEGATIVE_INFINITY;
         Action bestAction = null;
-        for (int i=size; i>=0; i--) {
-            List<Set<Item>> subsets = Combination.generateCombinations(toPack, size);
-            for (Set<Item> subset : subsets) {
-                List<Placement> placements = EMSHeuristic.getPlacements(kp3DState, subset);
-                if (placements.size() == subset.size()) {
-                    KP3DAction action = new KP3DAction(placements);
-                    double reward = action.getReward();
-                    if (reward > bestReward) {
-                        bestReward = reward;
-                        bestAction = action;
-                    }
+        PackingTrie packings = new PackingTrie(kp3DState, toPack);
+        SubsetEnumerator subsets = new SubsetEnumerator(size);
+        while (subsets.hasNext() && bestReward < bound[subsets.getSize()]) {
+            long subset = subsets.nextLong();
+            List<Placement> placements = packings.getPlacements(subset);
+            if (placements.size() == Long.bitCount(subset)) {
+                KP3DAction action = new KP3DAction(placements);
+                double reward = action.getReward();
+                if (reward > bestReward) {
+                    bestReward = reward;
+                    bestAction = action;
                 }
             }
         }
@@ -6,6 +6,8 @@ import it.polimi.algorithm.domain.State;
 import it.polimi.kp3d.instances.KP3DGenerator;
 import it.polimi.kp3d.instances.KP3DInstance;
 
+import java.util.Random;
+
 public class KP3DRandomSpaceFactory implements InformationSpaceFactory {
     private final KP3DGenerator generator;
 
@@ -15,15 +17,21 @@ public class KP3DRandomSpaceFactory implements InformationSpaceFactory {
 
     @Override
     public InformationSpace build(State s) {
+        return build(s, generator.getRandom());
+    }
+
+    @Override
+    public InformationSpace build(State s, Random random) {
         KP3DState state = (KP3DState) s;
         int maxNumBatches;
         if (generator.getMaxNumBatches() > state.getNumBatches())
             maxNumBatches = generator.sampleUniform(state.getNumBatches(),
-                    generator.getMaxNumBatches() + (generator.getMaxNumBatches() - state.getNumBatches()));
+                    generator.getMaxNumBatches() + (generator.getMaxNumBatches() - state.getNumBatches()), random);
         else
             maxNumBatches = generator.getMaxNumBatches();
         int numBatches = maxNumBatches - state.getNumBatches();
-        KP3DInstance instance = generator.generate(-1, numBatches);
+        // sampled items are numbered after those the state knows of, so that their ids stay unique in the state
+        KP3DInstance instance = generator.generate(-1, numBatches, random, state.getMaxItemId() + 1);
         return new KP3DInformationSpace(instance.getItems());
     }
 }
@@ -4,12 +4,11 @@ import it.polimi.algorithm.core.*;
 import it.polimi.algorithm.domain.Action;
 import it.polimi.algorithm.domain.State;
 import it.polimi.kp3d.domain.Item;
-import it.polimi.kp3d.domain.Placement;
-import it.polimi.utils.Combination;
+import it.polimi.utils.SubsetEnumerator;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 public class KP3DRolloutMyopic extends RolloutPolicy {
 
@@ -17,33 +16,76 @@ public class KP3DRolloutMyopic extends RolloutPolicy {
                              Policy basePolicy,
                              TransitionFunction transitionFunction,
                              RewardFunction rewardFunction,
-                             int m) {
-        super(informationSpaceFactory, basePolicy, transitionFunction, rewardFunction, m);
+                             int m,
+                             long seed) {
+        super(informationSpaceFactory, basePolicy, transitionFunction, rewardFunction, m, seed);
     }
 
+    /**
+     * The subsets of the items to pack that fit entirely, the empty one included, and an empty action last. Only
+     * their masks are kept: the actions are packed again when they are read.
+     */
     @Override
     protected List<Action> getPossibleActions(State state) {
+        return getPossibleActions(state, NO_DEADLINE);
+    }
+
+    /**
+     * Stops at the deadline with the subsets found so far, which are the largest ones, and the empty action.
+     */
+    @Override
+    protected List<Action> getPossibleActions(State state, long deadline) {
         KP3DState kp3DState = (KP3DState) state;
-        Set<Item> toPack = kp3DState.getItemsToPack();
-        // System.out.println("Evaluating " + toPack.size() + " items");
-        int size = toPack.size();
-        List<Action> actions = new ArrayList<>();
-        for (int i=size; i>=0; i--) {
-            List<Set<Item>> subsets = Combination.generateCombinations(toPack, i);
-            for (Set<Item> subset : subsets) {
-                List<Placement> placements = EMSHeuristic.getPlacements(kp3DState, subset);
-                if (placements.size() == subset.size()) {
-                    KP3DAction action = new KP3DAction(placements);
-                    actions.add(action);
-                }
+        Item[] toPack = EMSHeuristic.byReward(kp3DState.getItemsToPack());
+        // System.out.println("Evaluating " + toPack.length + " items");
+        int size = toPack.length;
+        long[] feasible = new long[16];
+        int count = 0;
+        PackingTrie packings = new PackingTrie(kp3DState, toPack);
+        SubsetEnumerator subsets = new SubsetEnumerator(size);
+        while (subsets.hasNext() && !expired(deadline)) {
+            long subset = subsets.nextLong();
+            if (packings.fits(subset)) {
+                if (count == feasible.length)
+                    feasible = Arrays.copyOf(feasible, count * 2);
+                feasible[count++] = subset;
             }
         }
-        actions.add(new KP3DAction(new ArrayList<>()));
-        return actions;
+        if (count == feasible.length)
+            feasible = Arrays.copyOf(feasible, count + 1);
+        feasible[count++] = 0;
+        return new FeasibleActions(kp3DState, toPack, Arrays.copyOf(feasible, count));
     }
 
     @Override
     protected Action emptyAction(State state) {
         return null;
     }
+
+    /**
+     * Actions backed by subset masks over the items. Every read packs the subset on the state again, which is the
+     * same greedy packing found while listing them, so the state must not change while the list is used. Reads only
+     * look at the state and may come from several threads.
+     */
+    private static final class FeasibleActions extends AbstractList<Action> {
+        private final KP3DState state;
+        private final Item[] items;
+        private final long[] subsets;
+
+        FeasibleActions(KP3DState state, Item[] items, long[] subsets) {
+            this.state = state;
+            this.items = items;
+            this.subsets = subsets;
+        }
+
+        @Override
+        public Action get(int index) {
+            return new KP3DAction(EMSHeuristic.getPlacements(state, items, subsets[index]));
+        }
+
+        @Override
+        public int size() {
+            return subsets.length;
+        }
+    }
 }
@@ -3,94 +3,233 @@ package it.polimi.kp3d.core;
 import it.polimi.algorithm.domain.State;
 import it.polimi.kp3d.domain.Cube;
 import it.polimi.kp3d.domain.Item;
+import it.polimi.kp3d.domain.ItemSet;
 import it.polimi.kp3d.domain.Placement;
+import it.polimi.utils.RandomStreams;
 
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Set;
 
+/**
+ * State of the 3D knapsack. Clones share their sets copy-on-write: clone() is O(1) and a set is copied only the first
+ * time a state that shares it modifies it. For this reason the getters return read-only views and every change goes
+ * through the methods of the state.
+ * <p>
+ * While a checkpoint is open every change is recorded in an undo log, so that rollback() can restore the state as it
+ * was when the checkpoint was taken.
+ * <p>
+ * With a minimum support the state also indexes the cubes of the placed items, so that the heuristics only place
+ * items resting on enough of the cubes below them.
+ */
 public class KP3DState implements State {
     private final int W;
     private final int D;
     private final int H;
-    private final Set<Item> packedItems;
-    private final Set<Cube> emptyMaximalSpaces;
+    private ItemSet packedItems;
+    private EmptyMaximalSpaces emptyMaximalSpaces;
     private long packedVolume;
-    private final Set<Item> itemsToPack;
+    private ItemSet itemsToPack;
+    // xor of the hashes of the items to pack
+    private long itemsToPackHash;
     private double reward;
     private int numBatches;
+    // fraction of the base of an item that must rest on the floor or on placed items, 0 for no constraint
+    private double minSupport;
+    // the cubes of the placed items, only kept with a minimum support
+    private AABBTree placedCubes;
+    // xor of the hashes of the placed cubes
+    private long placedCubesHash;
+    // true while the corresponding set may be referenced by another state
+    private boolean sharedPackedItems;
+    private boolean sharedEmptyMaximalSpaces;
+    private boolean sharedItemsToPack;
+    private boolean sharedPlacedCubes;
+    private UndoLog undoLog;
 
     public KP3DState(int w, int d, int h) {
         W = w;
         D = d;
         H = h;
-        packedItems = new HashSet<>();
-        emptyMaximalSpaces = new HashSet<>();
+        packedItems = new ItemSet();
+        emptyMaximalSpaces = new EmptyMaximalSpaces();
         emptyMaximalSpaces.add(new Cube(w, d, h, 0, 0, 0));
         packedVolume = 0;
         reward = 0;
         numBatches = 0;
-        itemsToPack = new HashSet<>();
+        itemsToPack = new ItemSet();
     }
 
-    public KP3DState(int w, int d, int h, Set<Item> packedItems, Set<Cube> emptyMaximalSpaces, long packedVolume,
-                     double reward, int numBatches, Set<Item> itemsToPack) {
+    public KP3DState(int w, int d, int h, Set<Item> packedItems, EmptyMaximalSpaces emptyMaximalSpaces,
+                     long packedVolume, double reward, int numBatches, Set<Item> itemsToPack) {
         W = w;
         D = d;
         H = h;
-        this.packedItems = packedItems;
+        this.packedItems = toItemSet(packedItems);
         this.emptyMaximalSpaces = emptyMaximalSpaces;
         this.packedVolume = packedVolume;
         this.reward = reward;
         this.numBatches = numBatches;
-        this.itemsToPack = itemsToPack;
+        this.itemsToPack = toItemSet(itemsToPack);
+        for (Item item : this.itemsToPack)
+            itemsToPackHash ^= hash(item);
     }
 
     public void place(Placement placement) {
-        updateEmptyMaximalSpaces(placement, emptyMaximalSpaces);
-        packedItems.add(placement.getItem());
-        itemsToPack.remove(placement.getItem());
+        UndoLog log = getUndoLog();
+        Item item = placement.getItem();
+        ownEmptyMaximalSpaces().update(placement, log);
+        if (ownPackedItems().add(item) && log != null)
+            log.push(UndoLog.PACKED, item, 0, 0);
+        if (itemsToPack.contains(item)) {
+            ownItemsToPack().remove(item);
+            itemsToPackHash ^= hash(item);
+            if (log != null)
+                log.push(UndoLog.ITEM_TO_PACK_REMOVED, item, 0, 0);
+        }
+        if (log != null)
+            log.push(UndoLog.COUNTERS, null, packedVolume, reward);
         packedVolume += placement.getCube().getVolume();
-        reward += placement.getItem().getReward();
-    }
-
-    public static void updateEmptyMaximalSpaces(Placement placement, Set<Cube> emptyMaximalSpaces) {
-        Cube placementCube = placement.getCube();
-        Cube placementSpace = placement.getSpace();
-        if (placementSpace.getX() != placementCube.getX() 
-                || placementSpace.getY() != placementCube.getY() 
-                || placementSpace.getZ() != placementCube.getZ())
-            throw new IllegalArgumentException("Illegal position for splitting");
-        emptyMaximalSpaces.remove(placementSpace);
-        int top = placementSpace.getHeight() - placementCube.getHeight();
-        if (top > 1) {
-            Cube topSpace = new Cube(placementSpace.getWidth(), placementSpace.getDepth(),
-                    top, placementSpace.getX(), placementSpace.getY(),
-                    placementSpace.getZ() + placementCube.getHeight());
-            emptyMaximalSpaces.add(topSpace);
+        reward += item.getReward();
+        if (placedCubes != null) {
+            int handle = ownPlacedCubes().insert(placement.getCube());
+            placedCubesHash ^= hash(placement.getCube());
+            if (log != null)
+                log.push(UndoLog.CUBE_PLACED, null, handle, 0);
+        }
+    }
+
+    public void addItemToPack(Item item) {
+        UndoLog log = getUndoLog();
+        if (!ownItemsToPack().add(item))
+            return;
+        itemsToPackHash ^= hash(item);
+        if (log != null)
+            log.push(UndoLog.ITEM_TO_PACK_ADDED, item, 0, 0);
+    }
+
+    /**
+     * Drops the items of the current batch that have not been placed.
+     */
+    public void discardItemsToPack() {
+        if (itemsToPack.isEmpty())
+            return;
+        UndoLog log = getUndoLog();
+        if (log != null) {
+            for (Item item : itemsToPack)
+                log.push(UndoLog.ITEM_TO_PACK_REMOVED, item, 0, 0);
+        }
+        if (sharedItemsToPack) {
+            itemsToPack = new ItemSet();
+            sharedItemsToPack = false;
+        } else {
+            itemsToPack.clear();
+        }
+        itemsToPackHash = 0;
+    }
+
+    private ItemSet ownPackedItems() {
+        if (sharedPackedItems) {
+            packedItems = packedItems.copy();
+            sharedPackedItems = false;
         }
-        int front = placementSpace.getDepth() - placementCube.getDepth();
-        if (front > 1) {
-            Cube frontSpace = new Cube(placementSpace.getWidth(), front,
-                    placementCube.getHeight(), placementSpace.getX(), placementSpace.getY() + placementCube.getDepth(),
-                    placementSpace.getZ());
-            emptyMaximalSpaces.add(frontSpace);
+        return packedItems;
+    }
+
+    private static ItemSet toItemSet(Set<Item> items) {
+        return items instanceof ItemSet ? (ItemSet) items : new ItemSet(items);
+    }
+
+    private EmptyMaximalSpaces ownEmptyMaximalSpaces() {
+        if (sharedEmptyMaximalSpaces) {
+            emptyMaximalSpaces = emptyMaximalSpaces.copy();
+            sharedEmptyMaximalSpaces = false;
+        }
+        return emptyMaximalSpaces;
+    }
+
+    private AABBTree ownPlacedCubes() {
+        if (sharedPlacedCubes) {
+            placedCubes = placedCubes.clone();
+            sharedPlacedCubes = false;
         }
-        int right = placementSpace.getWidth() - placementCube.getWidth();
-        if (right > 1) {
-            Cube rightSpace = new Cube(right, placementCube.getDepth(),
-                    placementCube.getHeight(), placementSpace.getX() + placementCube.getWidth(), placementSpace.getY(),
-                    placementSpace.getZ());
-            emptyMaximalSpaces.add(rightSpace);
+        return placedCubes;
+    }
+
+    private ItemSet ownItemsToPack() {
+        if (sharedItemsToPack) {
+            itemsToPack = itemsToPack.copy();
+            sharedItemsToPack = false;
         }
-        Set<Cube> toRemove = new HashSet<>();
-        for (Cube space : emptyMaximalSpaces) {
-            for (Cube otherSpace : emptyMaximalSpaces) {
-                if (!space.equals(otherSpace) && space.contains(otherSpace)) {
-                    toRemove.add(otherSpace);
-                }
+        return itemsToPack;
+    }
+
+    /**
+     * Opens a checkpoint and returns its position in the undo log.
+     */
+    public int checkpoint() {
+        if (undoLog == null)
+            undoLog = new UndoLog();
+        undoLog.open++;
+        return undoLog.size;
+    }
+
+    /**
+     * Reverts, most recent first, the changes made since the given checkpoint and closes it.
+     */
+    public void rollback(int checkpoint) {
+        UndoLog log = undoLog;
+        if (log == null || log.open == 0 || checkpoint > log.size)
+            throw new IllegalStateException("No open checkpoint at " + checkpoint);
+        while (log.size > checkpoint) {
+            int i = --log.size;
+            Object ref = log.refs[i];
+            log.refs[i] = null;
+            switch (log.ops[i]) {
+                case UndoLog.SPACE_ADDED:
+                    ownEmptyMaximalSpaces().remove((Cube) ref);
+                    break;
+                case UndoLog.SPACE_REMOVED:
+                    ownEmptyMaximalSpaces().add((Cube) ref);
+                    break;
+                case UndoLog.PACKED:
+                    ownPackedItems().remove((Item) ref);
+                    break;
+                case UndoLog.ITEM_TO_PACK_ADDED:
+                    ownItemsToPack().remove((Item) ref);
+                    itemsToPackHash ^= hash((Item) ref);
+                    break;
+                case UndoLog.ITEM_TO_PACK_REMOVED:
+                    ownItemsToPack().add((Item) ref);
+                    itemsToPackHash ^= hash((Item) ref);
+                    break;
+                case UndoLog.COUNTERS:
+                    packedVolume = log.longs[i];
+                    reward = log.doubles[i];
+                    break;
+                case UndoLog.NUM_BATCHES:
+                    numBatches = (int) log.longs[i];
+                    break;
+                case UndoLog.CUBE_PLACED:
+                    AABBTree cubes = ownPlacedCubes();
+                    placedCubesHash ^= hash(cubes.get((int) log.longs[i]));
+                    cubes.remove((int) log.longs[i]);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown undo operation " + log.ops[i]);
             }
         }
-        emptyMaximalSpaces.removeAll(toRemove);
+        log.open--;
+    }
+
+    private UndoLog getUndoLog() {
+        return undoLog != null && undoLog.open > 0 ? undoLog : null;
+    }
+
+    public static void updateEmptyMaximalSpaces(Placement placement, EmptyMaximalSpaces emptyMaximalSpaces) {
+        emptyMaximalSpaces.update(placement);
     }
 
     public int getW() {
@@ -106,13 +245,66 @@ public class KP3DState implements State {
     }
 
     public Set<Item> getPackedItems() {
-        return packedItems;
+        return Collections.unmodifiableSet(packedItems);
     }
 
+    /**
+     * A read-only view of the empty maximal spaces, which reads them as they are when it is used: getting it costs
+     * nothing and contains() is a binary search.
+     */
     public Set<Cube> getEmptyMaximalSpaces() {
+        return new AbstractSet<Cube>() {
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Cube && emptyMaximalSpaces.contains((Cube) o);
+            }
+
+            @Override
+            public Iterator<Cube> iterator() {
+                return emptyMaximalSpaces.iterator();
+            }
+
+            @Override
+            public int size() {
+                return emptyMaximalSpaces.size();
+            }
+        };
+    }
+
+    /**
+     * The indexed spaces themselves, for the heuristics of this package. They must not be modified: copy() them.
+     */
+    EmptyMaximalSpaces emptyMaximalSpaces() {
         return emptyMaximalSpaces;
     }
 
+    /**
+     * Requires every item placed from now on to rest with at least the given fraction of its base on the floor or on
+     * the items below it. A positive minimum must be set before the first placement, as the cubes of the items are
+     * only kept from then on, while the constraint can be dropped at any time by setting it to 0.
+     */
+    public void setMinSupport(double minSupport) {
+        if (minSupport < 0 || minSupport > 1)
+            throw new IllegalArgumentException("Minimum support must be in [0, 1], got " + minSupport);
+        if (minSupport > 0 && !packedItems.isEmpty())
+            throw new IllegalStateException("Minimum support set after the first placement");
+        this.minSupport = minSupport;
+        placedCubes = minSupport > 0 ? new AABBTree() : null;
+        sharedPlacedCubes = false;
+        placedCubesHash = 0;
+    }
+
+    public double getMinSupport() {
+        return minSupport;
+    }
+
+    /**
+     * The cubes of the placed items, null without a minimum support. They must not be modified.
+     */
+    AABBTree placedCubes() {
+        return placedCubes;
+    }
+
     public long getPackedVolume() {
         return packedVolume;
     }
@@ -122,7 +314,45 @@ public class KP3DState implements State {
     }
 
     public Set<Item> getItemsToPack() {
-        return itemsToPack;
+        return Collections.unmodifiableSet(itemsToPack);
+    }
+
+    /**
+     * Whether this very item is still to be packed. Sampled items reuse ids, so the size and the reward must match
+     * too.
+     */
+    public boolean isToPack(Item item) {
+        Item toPack = itemsToPack.get(item.getId());
+        return toPack == item || toPack != null && toPack.getW() == item.getW() && toPack.getD() == item.getD()
+                && toPack.getH() == item.getH() && toPack.getReward() == item.getReward();
+    }
+
+    /**
+     * The largest id among the packed items and the items to pack, -1 if there are none.
+     */
+    public int getMaxItemId() {
+        return Math.max(packedItems.maxId(), itemsToPack.maxId());
+    }
+
+    /**
+     * Zobrist hash of what the packing decisions depend on: the empty maximal spaces and the items to pack, with
+     * their sizes and rewards, and with a minimum support the placed cubes. It is updated with every change, so
+     * reading it is O(1).
+     */
+    public long getZobristHash() {
+        return emptyMaximalSpaces.getHash() ^ itemsToPackHash ^ placedCubesHash;
+    }
+
+    private static long hash(Cube cube) {
+        long position = ((long) cube.getX() << 42) ^ ((long) cube.getY() << 21) ^ cube.getZ();
+        long size = ((long) cube.getWidth() << 42) ^ ((long) cube.getDepth() << 21) ^ cube.getHeight();
+        // a different stream from the one of the empty spaces
+        return RandomStreams.mix(RandomStreams.mix(position, size), -1);
+    }
+
+    private static long hash(Item item) {
+        long size = ((long) item.getW() << 42) ^ ((long) item.getD() << 21) ^ item.getH();
+        return RandomStreams.mix(RandomStreams.mix(item.getId(), Double.doubleToLongBits(item.getReward())), size);
     }
 
     public int getNumBatches() {
@@ -130,6 +360,9 @@ public class KP3DState implements State {
     }
 
     public void setNumBatches(int numBatches) {
+        UndoLog log = getUndoLog();
+        if (log != null)
+            log.push(UndoLog.NUM_BATCHES, null, this.numBatches, 0);
         this.numBatches = numBatches;
     }
 
@@ -138,9 +371,85 @@ public class KP3DState implements State {
         return false;
     }
 
+    /**
+     * Marks the sets as shared, so that clone() no longer writes to this state until it changes again.
+     */
+    @Override
+    public void share() {
+        sharedPackedItems = sharedEmptyMaximalSpaces = sharedItemsToPack = true;
+        if (placedCubes != null)
+            sharedPlacedCubes = true;
+    }
+
+    private boolean isShared() {
+        return sharedPackedItems && sharedEmptyMaximalSpaces && sharedItemsToPack
+                && (placedCubes == null || sharedPlacedCubes);
+    }
+
+    /**
+     * O(1): the clone shares the sets of this state. Once share() has been called, and until this state changes,
+     * cloning only reads it, so several threads can clone it at once.
+     */
     @Override
     public State clone() {
-        return new KP3DState(W, D, H, new HashSet<>(packedItems), new HashSet<>(emptyMaximalSpaces), packedVolume,
-                reward, numBatches, new HashSet<>(itemsToPack));
+        KP3DState cloned = new KP3DState(W, D, H, packedItems, emptyMaximalSpaces, packedVolume, reward, numBatches,
+                itemsToPack);
+        if (!isShared())
+            share();
+        cloned.sharedPackedItems = cloned.sharedEmptyMaximalSpaces = cloned.sharedItemsToPack = true;
+        cloned.minSupport = minSupport;
+        if (placedCubes != null) {
+            cloned.placedCubes = placedCubes;
+            cloned.placedCubesHash = placedCubesHash;
+            cloned.sharedPlacedCubes = true;
+        }
+        return cloned;
+    }
+
+    /**
+     * Changes made while a checkpoint is open, most recent last. The columns are kept between checkpoints, so once
+     * they have grown recording a change does not allocate.
+     */
+    private static final class UndoLog implements EmptyMaximalSpaces.Listener {
+        static final byte SPACE_ADDED = 0;
+        static final byte SPACE_REMOVED = 1;
+        static final byte PACKED = 2;
+        static final byte ITEM_TO_PACK_ADDED = 3;
+        static final byte ITEM_TO_PACK_REMOVED = 4;
+        static final byte COUNTERS = 5;
+        static final byte NUM_BATCHES = 6;
+        static final byte CUBE_PLACED = 7;
+
+        byte[] ops = new byte[64];
+        Object[] refs = new Object[64];
+        long[] longs = new long[64];
+        double[] doubles = new double[64];
+        int size;
+        int open;
+
+        @Override
+        public void spaceAdded(Cube space) {
+            push(SPACE_ADDED, space, 0, 0);
+        }
+
+        @Override
+        public void spaceRemoved(Cube space) {
+            push(SPACE_REMOVED, space, 0, 0);
+        }
+
+        void push(byte op, Object ref, long l, double d) {
+            if (size == ops.length) {
+                int capacity = size * 2;
+                ops = Arrays.copyOf(ops, capacity);
+                refs = Arrays.copyOf(refs, capacity);
+                longs = Arrays.copyOf(longs, capacity);
+                doubles = Arrays.copyOf(doubles, capacity);
+            }
+            ops[size] = op;
+            refs[size] = ref;
+            longs[size] = l;
+            doubles[size] = d;
+            size++;
+        }
     }
 }
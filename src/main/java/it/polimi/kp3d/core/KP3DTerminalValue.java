@@ -0,0 +1,46 @@
+package it.polimi.kp3d.core;
+
+import it.polimi.algorithm.core.ValueFunction;
+import it.polimi.algorithm.domain.State;
+import it.polimi.kp3d.instances.KP3DGenerator;
+
+/**
+ * Cheap estimate of the reward still obtainable from a state: the free volume of the empty maximal spaces that can
+ * hold at least the smallest item the generator produces, times the expected reward per unit of volume. The volume
+ * cannot be filled with more than the items still expected to arrive, so the estimate is capped by their expected
+ * reward, and it is 0 when the generator expects no more batches.
+ */
+public class KP3DTerminalValue implements ValueFunction {
+    private final int minEdge;
+    private final double rewardDensity;
+    private final int maxNumBatches;
+    private final double batchReward;
+
+    public KP3DTerminalValue(KP3DGenerator generator) {
+        this.minEdge = generator.getMinEdge();
+        double expectedEdge = (generator.getMinEdge() + generator.getMaxEdge()) / 2.0;
+        this.rewardDensity = generator.getRewardExpected() / (expectedEdge * expectedEdge * expectedEdge);
+        // on average the sampled paths end at the largest number of batches, see KP3DRandomSpaceFactory
+        this.maxNumBatches = generator.getMaxNumBatches();
+        this.batchReward = (generator.getMinBatchSize() + generator.getMaxBatchSize()) / 2.0
+                * generator.getRewardExpected();
+    }
+
+    @Override
+    public double getValue(State s) {
+        KP3DState state = (KP3DState) s;
+        int remainingBatches = maxNumBatches - state.getNumBatches();
+        if (remainingBatches <= 0)
+            return 0;
+        EmptyMaximalSpaces spaces = state.emptyMaximalSpaces();
+        long freeVolume = 0;
+        for (int slot = 0; slot < spaces.size(); slot++) {
+            if (spaces.getWidth(slot) >= minEdge && spaces.getDepth(slot) >= minEdge
+                    && spaces.getHeight(slot) >= minEdge)
+                freeVolume += spaces.getVolume(slot);
+        }
+        long binVolume = (long) state.getW() * state.getD() * state.getH();
+        freeVolume = Math.min(freeVolume, binVolume - state.getPackedVolume());
+        return Math.min(freeVolume * rewardDensity, remainingBatches * batchReward);
+    }
+}
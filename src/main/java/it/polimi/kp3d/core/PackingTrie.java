@@ -0,0 +1,185 @@
+package it.polimi.kp3d.core;
+
+import it.polimi.kp3d.domain.Item;
+import it.polimi.kp3d.domain.Placement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Greedy packings of the subsets of a batch on a state, sharing their common prefixes.
+ * <p>
+ * The greedy packer goes through the items of a subset by decreasing reward, so the spaces it works on after an item
+ * only depend on the items before it. Each node of the trie is one such prefix and keeps the spaces left by its
+ * placements, a child per item processed next. Packing a subset walks down from the root and only places items, and
+ * updates spaces, along edges no other subset has taken yet. With a minimum support an item rejected for lack of
+ * support is deferred: its node keeps the spaces of the parent and the deferred items, which the placement on every
+ * later edge tries again. The packings are the same as those of
+ * {@link EMSHeuristic#getPlacements(KP3DState, Item[], long)}.
+ * <p>
+ * Every node that places items keeps its own copy of the spaces and there can be as many nodes as subsets, so at
+ * most {@link #MAX_NODES} are created. Past that, a packing goes down the trie as far as the nodes exist and places
+ * the rest of its items on a scratch copy of the spaces of the last node, without caching them.
+ */
+class PackingTrie {
+
+    // nodes created before packings stop being cached
+    static final int MAX_NODES = 1 << 10;
+
+    private static final Placement[] NO_PLACEMENTS = new Placement[0];
+
+    // marks an item that does not fit after the placements of a node, and never will
+    private static final Node NO_FIT = new Node(null, null, null, 0);
+
+    private final KP3DState state;
+    private final Item[] items;
+    private final Node root;
+    private int nodes = 1;
+    // spaces of the packings below the last nodes, allocated once the trie is full
+    private EmptyMaximalSpaces scratch;
+    // the placements of the node a child is computed for, refilled every time
+    private final List<Placement> path = new ArrayList<>();
+
+    /**
+     * The items must be sorted as by {@link EMSHeuristic#byReward}. The state must not change while the trie is used.
+     */
+    PackingTrie(KP3DState state, Item[] items) {
+        this.state = state;
+        this.items = items;
+        this.root = new Node(null, NO_PLACEMENTS, state.emptyMaximalSpaces(), 0);
+    }
+
+    List<Placement> getPlacements(long subset) {
+        Node node = root;
+        for (long remaining = subset; remaining != 0; remaining &= remaining - 1) {
+            Node child = child(node, Long.numberOfTrailingZeros(remaining));
+            if (child == null)
+                return packBelow(node, remaining, false);
+            if (child != NO_FIT)
+                node = child;
+        }
+        return node.getPlacements();
+    }
+
+    /**
+     * Whether the greedy packing of the subset places all of its items.
+     */
+    boolean fits(long subset) {
+        Node node = root;
+        for (long remaining = subset; remaining != 0; remaining &= remaining - 1) {
+            Node child = child(node, Long.numberOfTrailingZeros(remaining));
+            if (child == null)
+                return packBelow(node, remaining, true) != null;
+            if (child == NO_FIT)
+                return false;
+            node = child;
+        }
+        return node.deferred == 0;
+    }
+
+    /**
+     * The node reached by processing the item after the prefix of the given one, NO_FIT if it does not fit and never
+     * will, null if that node does not exist and the trie is full.
+     */
+    private Node child(Node node, int item) {
+        if (node.children == null)
+            node.children = new Node[items.length];
+        Node child = node.children[item];
+        if (child != null)
+            return child;
+        if (nodes >= MAX_NODES)
+            return null;
+        path.clear();
+        // the placements of the path only matter to the support of the items, in any order
+        if (state.getMinSupport() > 0)
+            node.addPlacements(path);
+        int placed = path.size();
+        EmptyMaximalSpaces emptyMaximalSpaces = node.emptyMaximalSpaces;
+        Placement placement = emptyMaximalSpaces.isEmpty() ? null
+                : EMSHeuristic.getPlacement(items[item], emptyMaximalSpaces, state, path);
+        if (placement != null) {
+            EmptyMaximalSpaces spaces = emptyMaximalSpaces.copyTo(new EmptyMaximalSpaces(), false);
+            path.add(placement);
+            KP3DState.updateEmptyMaximalSpaces(placement, spaces);
+            long deferred = node.deferred;
+            if (deferred != 0)
+                deferred = EMSHeuristic.placeDeferred(state, items, deferred, spaces, path);
+            Placement[] edge = path.subList(placed, path.size()).toArray(NO_PLACEMENTS);
+            child = new Node(node, edge, spaces, deferred);
+            nodes++;
+        } else if (EMSHeuristic.mayFitLater(items[item], emptyMaximalSpaces, state)) {
+            // nothing is placed, the spaces stay those of the node
+            child = new Node(node, NO_PLACEMENTS, emptyMaximalSpaces, node.deferred | 1L << item);
+            nodes++;
+        } else {
+            child = NO_FIT;
+        }
+        node.children[item] = child;
+        return child;
+    }
+
+    /**
+     * The placements of the node followed by the greedy packing of the remaining items on a copy of its spaces, or
+     * null if all of them must fit and one does not.
+     */
+    private List<Placement> packBelow(Node node, long remaining, boolean allMustFit) {
+        if (scratch == null)
+            scratch = new EmptyMaximalSpaces();
+        EmptyMaximalSpaces spaces = node.emptyMaximalSpaces.copyTo(scratch, false);
+        List<Placement> placements = node.getPlacements();
+        long deferred = node.deferred;
+        for (; remaining != 0; remaining &= remaining - 1) {
+            int i = Long.numberOfTrailingZeros(remaining);
+            Placement placement = spaces.isEmpty() ? null
+                    : EMSHeuristic.getPlacement(items[i], spaces, state, placements);
+            if (placement == null) {
+                if (EMSHeuristic.mayFitLater(items[i], spaces, state))
+                    deferred |= 1L << i;
+                else if (allMustFit)
+                    return null;
+                continue;
+            }
+            placements.add(placement);
+            KP3DState.updateEmptyMaximalSpaces(placement, spaces);
+            if (deferred != 0)
+                deferred = EMSHeuristic.placeDeferred(state, items, deferred, spaces, placements);
+        }
+        return allMustFit && deferred != 0 ? null : placements;
+    }
+
+    private static final class Node {
+        final Node parent;
+        // the placements made on the edge from the parent: the item, then the deferred items it let in
+        final Placement[] edge;
+        final EmptyMaximalSpaces emptyMaximalSpaces;
+        // mask of the items rejected for lack of support so far
+        final long deferred;
+        Node[] children;
+
+        Node(Node parent, Placement[] edge, EmptyMaximalSpaces emptyMaximalSpaces, long deferred) {
+            this.parent = parent;
+            this.edge = edge;
+            this.emptyMaximalSpaces = emptyMaximalSpaces;
+            this.deferred = deferred;
+        }
+
+        /**
+         * Adds the placements from the root to this node, in order.
+         */
+        void addPlacements(List<Placement> placements) {
+            if (parent != null)
+                parent.addPlacements(placements);
+            Collections.addAll(placements, edge);
+        }
+
+        /**
+         * The placements from the root to this node.
+         */
+        List<Placement> getPlacements() {
+            List<Placement> placements = new ArrayList<>();
+            addPlacements(placements);
+            return placements;
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package it.polimi.kp3d.domain;
 
-import java.util.Objects;
-
 public final class Cube {
     public final int w, d, h;
     public final int x, y, z;
@@ -64,7 +62,13 @@ public final class Cube {
 
     @Override
     public int hashCode() {
-        return Objects.hash(w, d, h, x, y, z);
+        // same value as Objects.hash(w, d, h, x, y, z), without boxing
+        int result = 31 + w;
+        result = 31 * result + d;
+        result = 31 * result + h;
+        result = 31 * result + x;
+        result = 31 * result + y;
+        return 31 * result + z;
     }
 
     @Override
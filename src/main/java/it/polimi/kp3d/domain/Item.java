@@ -1,7 +1,5 @@
 package it.polimi.kp3d.domain;
 
-import java.util.Objects;
-
 public class Item {
     private final int id;
     private final double reward;
@@ -51,6 +49,7 @@ public class Item {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id);
+        // same value as Objects.hash(id), without boxing
+        return 31 + id;
     }
 }
@@ -0,0 +1,239 @@
+package it.polimi.kp3d.domain;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of items kept sorted by id in two parallel arrays, the ids and the items, so that its memory follows the number
+ * of items it holds and not the range of their ids. Membership is a binary search over the ids, adding an item with
+ * a larger id than the others is an append, union and difference merge the sorted arrays and copies are array
+ * copies. Items are iterated by increasing id.
+ */
+public class ItemSet extends AbstractSet<Item> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] ids;
+    private Item[] items;
+    private int size;
+    // structural changes, for the iterators
+    private int modCount;
+
+    public ItemSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public ItemSet(int expectedSize) {
+        int capacity = Math.max(expectedSize, INITIAL_CAPACITY);
+        this.ids = new int[capacity];
+        this.items = new Item[capacity];
+    }
+
+    public ItemSet(Collection<Item> items) {
+        this(items.size());
+        addAll(items);
+    }
+
+    private ItemSet(ItemSet toCopy) {
+        int capacity = Math.max(toCopy.size, INITIAL_CAPACITY);
+        this.ids = Arrays.copyOf(toCopy.ids, capacity);
+        this.items = Arrays.copyOf(toCopy.items, capacity);
+        this.size = toCopy.size;
+    }
+
+    public ItemSet copy() {
+        return new ItemSet(this);
+    }
+
+    @Override
+    public boolean add(Item item) {
+        int id = item.getId();
+        int i;
+        if (size == 0 || ids[size - 1] < id) {
+            i = size;
+        } else {
+            i = indexOf(id);
+            if (i >= 0)
+                return false;
+            i = -i - 1;
+        }
+        if (size == ids.length)
+            grow(size + 1);
+        System.arraycopy(ids, i, ids, i + 1, size - i);
+        System.arraycopy(items, i, items, i + 1, size - i);
+        ids[i] = id;
+        items[i] = item;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Item && containsId(((Item) o).getId());
+    }
+
+    public boolean containsId(int id) {
+        return indexOf(id) >= 0;
+    }
+
+    public Item get(int id) {
+        int i = indexOf(id);
+        return i >= 0 ? items[i] : null;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Item))
+            return false;
+        int i = indexOf(((Item) o).getId());
+        if (i < 0)
+            return false;
+        removeAt(i);
+        return true;
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(ids, i + 1, ids, i, size - 1 - i);
+        System.arraycopy(items, i + 1, items, i, size - 1 - i);
+        items[--size] = null;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Item> c) {
+        if (!(c instanceof ItemSet))
+            return super.addAll(c);
+        ItemSet other = (ItemSet) c;
+        if (other.size == 0)
+            return false;
+        if (size == 0 || ids[size - 1] < other.ids[0]) {
+            // all the other ids come after ours
+            if (size + other.size > ids.length)
+                grow(size + other.size);
+            System.arraycopy(other.ids, 0, ids, size, other.size);
+            System.arraycopy(other.items, 0, items, size, other.size);
+            size += other.size;
+            modCount++;
+            return true;
+        }
+        int capacity = Math.max(size + other.size, INITIAL_CAPACITY);
+        int[] mergedIds = new int[capacity];
+        Item[] mergedItems = new Item[capacity];
+        int i = 0, j = 0, k = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || i < size && ids[i] < other.ids[j]) {
+                mergedIds[k] = ids[i];
+                mergedItems[k++] = items[i++];
+            } else {
+                if (i < size && ids[i] == other.ids[j])
+                    i++;
+                mergedIds[k] = other.ids[j];
+                mergedItems[k++] = other.items[j++];
+            }
+        }
+        boolean changed = k != size;
+        ids = mergedIds;
+        items = mergedItems;
+        size = k;
+        if (changed)
+            modCount++;
+        return changed;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        if (!(c instanceof ItemSet))
+            return super.removeAll(c);
+        ItemSet other = (ItemSet) c;
+        int k = 0;
+        for (int i = 0, j = 0; i < size; i++) {
+            while (j < other.size && other.ids[j] < ids[i])
+                j++;
+            if (j < other.size && other.ids[j] == ids[i])
+                continue;
+            ids[k] = ids[i];
+            items[k++] = items[i];
+        }
+        if (k == size)
+            return false;
+        Arrays.fill(items, k, size, null);
+        size = k;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        if (size == 0)
+            return;
+        Arrays.fill(items, 0, size, null);
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The largest id in the set, -1 if it is empty.
+     */
+    public int maxId() {
+        return size == 0 ? -1 : ids[size - 1];
+    }
+
+    @Override
+    public Iterator<Item> iterator() {
+        return new Iterator<Item>() {
+            private int next;
+            private int last = -1;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Item next() {
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if (next >= size)
+                    throw new NoSuchElementException();
+                last = next;
+                return items[next++];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0)
+                    throw new IllegalStateException();
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                removeAt(last);
+                next = last;
+                last = -1;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+    /**
+     * The position of the id, or -(insertion point) - 1 if it is not in the set.
+     */
+    private int indexOf(int id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, capacity);
+        items = Arrays.copyOf(items, capacity);
+    }
+}
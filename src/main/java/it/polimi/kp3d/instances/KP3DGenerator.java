@@ -37,6 +37,10 @@ public class KP3DGenerator {
         this.random = random;
     }
 
+    public Random getRandom() {
+        return random;
+    }
+
     public int getMaxBatchSize() {
         return maxBatchSize;
     }
@@ -53,23 +57,46 @@ public class KP3DGenerator {
         return minNumBatches;
     }
 
+    public int getMinEdge() {
+        return minEdge;
+    }
+
+    public int getMaxEdge() {
+        return maxEdge;
+    }
+
+    public double getRewardExpected() {
+        return rewardExpected;
+    }
+
     public KP3DInstance generate(int id) {
         int numBatches = sampleUniform(minNumBatches, maxNumBatches);
         return generate(id, numBatches);
     }
 
     public KP3DInstance generate(int id, int numBatches) {
+        return generate(id, numBatches, random);
+    }
+
+    public KP3DInstance generate(int id, int numBatches, Random random) {
+        return generate(id, numBatches, random, 0);
+    }
+
+    /**
+     * Generates an instance whose items are numbered consecutively from firstItemId.
+     */
+    public KP3DInstance generate(int id, int numBatches, Random random, int firstItemId) {
         int w = 1200, d = 800, h = 2000;
         LinkedList<Set<Item>> items = new LinkedList<>();
-        int idItem = 0;
+        int idItem = firstItemId;
         for (int i = 0; i< numBatches; i++) {
-            int batchSize = sampleUniform(minBatchSize, maxBatchSize);
+            int batchSize = sampleUniform(minBatchSize, maxBatchSize, random);
             Set<Item> batch = new HashSet<>(batchSize);
             for (int j=0; j<batchSize; j++) {
-                int wItem = sampleUniform(minEdge, maxEdge);
-                int dItem = sampleUniform(minEdge, maxEdge);
-                int hItem = sampleUniform(minEdge, maxEdge);
-                double reward = sampleNormal(rewardExpected, rewardDeviation);
+                int wItem = sampleUniform(minEdge, maxEdge, random);
+                int dItem = sampleUniform(minEdge, maxEdge, random);
+                int hItem = sampleUniform(minEdge, maxEdge, random);
+                double reward = sampleNormal(rewardExpected, rewardDeviation, random);
                 batch.add(new Item(idItem++, reward, wItem, dItem, hItem));
             }
             items.add(batch);
@@ -78,10 +105,14 @@ public class KP3DGenerator {
     }
 
     public int sampleUniform(int min, int max) {
+        return sampleUniform(min, max, random);
+    }
+
+    public int sampleUniform(int min, int max, Random random) {
         return random.nextInt(max - min + 1) + min;
     }
 
-    private double sampleNormal(double expected, double deviation) {
+    private double sampleNormal(double expected, double deviation, Random random) {
         return random.nextGaussian() * deviation + expected;
     }
 
@@ -0,0 +1,23 @@
+package it.polimi.utils;
+
+import java.util.Random;
+
+public class RandomStreams {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Derives the seed of the index-th stream of a parent seed. Streams are independent of the order in which they
+     * are requested, so tasks can build their own generator without sharing state.
+     */
+    public static long mix(long seed, long index) {
+        long z = seed + GOLDEN_GAMMA * (index + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public static Random stream(long seed, long index) {
+        return new Random(mix(seed, index));
+    }
+}
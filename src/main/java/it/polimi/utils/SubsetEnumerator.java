@@ -0,0 +1,83 @@
+package it.polimi.utils;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Streams the subsets of n elements as bit masks, bit i standing for element i, from the largest cardinality to the
+ * smallest and, within a cardinality, by increasing mask (Gosper's hack). Nothing is allocated per subset and the
+ * subsets are only generated as they are consumed, so the caller can stop at any point.
+ */
+public class SubsetEnumerator implements PrimitiveIterator.OfLong {
+
+    /**
+     * The most elements a mask can stand for.
+     */
+    public static final int MAX_ELEMENTS = Long.SIZE;
+
+    private final int n;
+    private final int minSize;
+    private int size;
+    private long next;
+    // the largest mask of the current cardinality
+    private long last;
+
+    public SubsetEnumerator(int n) {
+        this(n, n, 0);
+    }
+
+    /**
+     * Enumerates the subsets whose cardinality is between minSize and maxSize.
+     */
+    public SubsetEnumerator(int n, int maxSize, int minSize) {
+        all(n);
+        if (minSize < 0 || maxSize > n)
+            throw new IllegalArgumentException("Illegal cardinalities [" + minSize + ", " + maxSize + "]");
+        this.n = n;
+        this.minSize = minSize;
+        this.size = maxSize;
+        this.next = all(maxSize);
+        this.last = next << (n - maxSize);
+    }
+
+    /**
+     * The mask of all the n elements. This is where the limit of {@link #MAX_ELEMENTS} is enforced.
+     */
+    public static long all(int n) {
+        if (n < 0 || n > MAX_ELEMENTS)
+            throw new IllegalArgumentException("Between 0 and " + MAX_ELEMENTS + " elements, got " + n);
+        return n == MAX_ELEMENTS ? -1L : (1L << n) - 1;
+    }
+
+    /**
+     * The cardinality of the subset nextLong() returns next.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return size >= minSize;
+    }
+
+    @Override
+    public long nextLong() {
+        if (size < minSize)
+            throw new NoSuchElementException();
+        long subset = next;
+        if (subset == last) {
+            size--;
+            if (size >= 0) {
+                next = all(size);
+                last = next << (n - size);
+            }
+        } else {
+            // the lowest bit is never bit 63 here, so c > 0 and the shifted difference is not negative
+            long c = subset & -subset;
+            long r = subset + c;
+            next = (((r ^ subset) >>> 2) / c) | r;
+        }
+        return subset;
+    }
+}
@@ -0,0 +1,141 @@
+package it.polimi.algorithm.core;
+
+import it.polimi.algorithm.domain.Action;
+import it.polimi.algorithm.domain.State;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CachingPolicyTest {
+
+    /**
+     * A state that only carries the key it is cached by and an id, different for states sharing a key.
+     */
+    private static final class KeyedState implements State {
+        final long key;
+        final int id;
+
+        KeyedState(long key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+
+        @Override
+        public boolean isAbsorbing() {
+            return false;
+        }
+
+        @Override
+        public State clone() {
+            return new KeyedState(key, id);
+        }
+    }
+
+    /**
+     * The action chosen for a state, only valid for the state with its id.
+     */
+    private static final class IdAction implements Action {
+        final int id;
+
+        IdAction(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Chooses an IdAction for the state, or null for negative ids, and counts its calls.
+     */
+    private static final class CountingPolicy implements Policy {
+        int calls;
+
+        @Override
+        public Action chooseAction(State state) {
+            calls++;
+            int id = ((KeyedState) state).id;
+            return id < 0 ? null : new IdAction(id);
+        }
+
+        @Override
+        public String getName() {
+            return "counting";
+        }
+    }
+
+    private static CachingPolicy cache(Policy policy, int capacity) {
+        return new CachingPolicy(policy, state -> ((KeyedState) state).key,
+                (state, action) -> action == null ? ((KeyedState) state).id < 0
+                        : ((IdAction) action).id == ((KeyedState) state).id, capacity);
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        CountingPolicy policy = new CountingPolicy();
+        CachingPolicy cache = cache(policy, 16);
+        KeyedState state = new KeyedState(3, 1);
+        Action first = cache.chooseAction(state);
+        assertSame(first, cache.chooseAction(state));
+        assertSame(first, cache.chooseAction(new KeyedState(3, 1)));
+        cache.chooseAction(new KeyedState(4, 2));
+        assertEquals(2, policy.calls);
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void cachesNullActions() {
+        CountingPolicy policy = new CountingPolicy();
+        CachingPolicy cache = cache(policy, 16);
+        KeyedState state = new KeyedState(5, -1);
+        assertNull(cache.chooseAction(state));
+        assertNull(cache.chooseAction(state));
+        assertEquals(1, policy.calls);
+        assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * A capacity of 32 makes 16 stripes of 2 entries, the keys multiple of 16 all going to the first one.
+     */
+    @Test
+    public void evictsLeastRecentlyUsedPerStripe() {
+        CountingPolicy policy = new CountingPolicy();
+        CachingPolicy cache = cache(policy, 32);
+        KeyedState a = new KeyedState(0, 0), b = new KeyedState(16, 1), c = new KeyedState(32, 2);
+        KeyedState other = new KeyedState(1, 3);
+        cache.chooseAction(other);
+        cache.chooseAction(a);
+        cache.chooseAction(b);
+        // a becomes the most recently used, so c evicts b
+        cache.chooseAction(a);
+        cache.chooseAction(c);
+        assertEquals(4, policy.calls);
+
+        cache.chooseAction(a);
+        cache.chooseAction(c);
+        cache.chooseAction(other);
+        assertEquals(4, policy.calls);
+        cache.chooseAction(b);
+        assertEquals(5, policy.calls);
+        assertEquals(4, cache.getHits());
+        assertEquals(5, cache.getMisses());
+    }
+
+    @Test
+    public void rejectsCachedActionsNoLongerValid() {
+        CountingPolicy policy = new CountingPolicy();
+        CachingPolicy cache = cache(policy, 16);
+        KeyedState first = new KeyedState(7, 1), second = new KeyedState(7, 2);
+        assertEquals(1, ((IdAction) cache.chooseAction(first)).id);
+        // same key, but the cached action is not valid for the second state: it is recomputed and replaced
+        assertEquals(2, ((IdAction) cache.chooseAction(second)).id);
+        assertEquals(2, ((IdAction) cache.chooseAction(second)).id);
+        assertEquals(1, ((IdAction) cache.chooseAction(first)).id);
+        assertEquals(3, policy.calls);
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCapacity() {
+        cache(new CountingPolicy(), 0);
+    }
+}
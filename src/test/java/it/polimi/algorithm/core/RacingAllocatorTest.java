@@ -0,0 +1,83 @@
+package it.polimi.algorithm.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RacingAllocatorTest {
+
+    private static ActionStatistics statistics(double immediateReward, double... values) {
+        ActionStatistics statistics = new ActionStatistics(immediateReward);
+        for (double value : values)
+            statistics.add(value);
+        return statistics;
+    }
+
+    private static boolean[] allRacing(int n) {
+        boolean[] racing = new boolean[n];
+        Arrays.fill(racing, true);
+        return racing;
+    }
+
+    @Test
+    public void dropsDominatedActions() {
+        RacingAllocator allocator = new RacingAllocator(2, 10, 2.0);
+        ActionStatistics[] statistics = {
+                statistics(0, 10, 11, 9),
+                statistics(0, 100, 101, 99),
+                statistics(50, 49, 51, 50),
+                statistics(0, 0, 200, 100)
+        };
+        boolean[] racing = allRacing(statistics.length);
+        assertEquals(3, allocator.eliminate(statistics, racing));
+        assertArrayEquals(new boolean[]{false, true, true, true}, racing);
+    }
+
+    @Test
+    public void waitsForMinSamples() {
+        RacingAllocator allocator = new RacingAllocator(3, 10, 2.0);
+        ActionStatistics[] statistics = {statistics(0, 10, 11, 9), statistics(0, 100, 101)};
+        boolean[] racing = allRacing(statistics.length);
+        assertEquals(2, allocator.eliminate(statistics, racing));
+        assertArrayEquals(allRacing(2), racing);
+    }
+
+    /**
+     * Whatever the statistics, the action with the highest value among those racing is never dropped.
+     */
+    @Test
+    public void neverDropsTheLeader() {
+        Random random = new Random(0);
+        RacingAllocator allocator = new RacingAllocator(2, 10, 1.0);
+        for (int trial = 0; trial < 1000; trial++) {
+            int n = 2 + random.nextInt(8);
+            ActionStatistics[] statistics = new ActionStatistics[n];
+            boolean[] racing = new boolean[n];
+            int leader = -1;
+            for (int a = 0; a < n; a++) {
+                statistics[a] = new ActionStatistics(random.nextInt(10));
+                double mean = random.nextGaussian() * 10, deviation = random.nextDouble() * 5;
+                for (int i = 0; i < 2 + random.nextInt(5); i++)
+                    statistics[a].add(mean + random.nextGaussian() * deviation);
+                racing[a] = a == 0 || random.nextBoolean();
+                if (racing[a] && (leader < 0 || statistics[a].getValue() > statistics[leader].getValue()))
+                    leader = a;
+            }
+            int alive = allocator.eliminate(statistics, racing);
+            assertTrue(racing[leader]);
+            int count = 0;
+            for (boolean r : racing)
+                if (r)
+                    count++;
+            assertEquals(count, alive);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsTwoSamples() {
+        new RacingAllocator(1, 10, 2.0);
+    }
+}
@@ -0,0 +1,190 @@
+package it.polimi.kp3d.core;
+
+import it.polimi.kp3d.domain.Cube;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class AABBTreeTest {
+
+    private static Cube randomBox(Random random, int maxSize, int range) {
+        return new Cube(1 + random.nextInt(maxSize), 1 + random.nextInt(maxSize), 1 + random.nextInt(maxSize),
+                random.nextInt(range), random.nextInt(range), random.nextInt(range));
+    }
+
+    private static int min(Cube box, int axis) {
+        return axis == AABBTree.X ? box.getX() : axis == AABBTree.Y ? box.getY() : box.getZ();
+    }
+
+    private static int max(Cube box, int axis) {
+        return axis == AABBTree.X ? box.getMaxX() : axis == AABBTree.Y ? box.getMaxY() : box.getMaxZ();
+    }
+
+    private static boolean overlapOthers(Cube a, Cube b, int axis) {
+        return (axis == AABBTree.X || CubeUtils.overlapX(a, b))
+                && (axis == AABBTree.Y || CubeUtils.overlapY(a, b))
+                && (axis == AABBTree.Z || CubeUtils.overlapZ(a, b));
+    }
+
+    /**
+     * Checks every query of the tree on the box against a scan of the boxes.
+     */
+    private static void assertQueries(AABBTree tree, Iterable<Cube> boxes, Cube query) {
+        Set<Cube> overlapping = new HashSet<>();
+        Set<Cube> supporting = new HashSet<>();
+        for (Cube box : boxes) {
+            if (CubeUtils.overlap(query, box))
+                overlapping.add(box);
+            int diff = query.getZ() - box.getMaxZ();
+            if (CubeUtils.overlapXY(query, box) && 0 <= diff && diff <= 5)
+                supporting.add(box);
+        }
+        assertEquals(overlapping, new HashSet<>(tree.getOverlapping(query)));
+        assertEquals(!overlapping.isEmpty(), tree.overlaps(query));
+        assertEquals(supporting, new HashSet<>(tree.getSupportingBoxes(query, 5)));
+
+        Set<Cube> visited = new HashSet<>();
+        assertTrue(tree.visitOverlapping(query, visited::add));
+        assertEquals(overlapping, visited);
+        visited.clear();
+        assertTrue(tree.visitSupporting(query, 5, visited::add));
+        assertEquals(supporting, visited);
+
+        for (int axis = AABBTree.X; axis <= AABBTree.Z; axis++) {
+            int successor = Integer.MAX_VALUE, precedent = Integer.MIN_VALUE;
+            for (Cube box : boxes) {
+                if (!overlapOthers(query, box, axis))
+                    continue;
+                if (min(box, axis) >= max(query, axis))
+                    successor = Math.min(successor, min(box, axis));
+                if (max(box, axis) <= min(query, axis))
+                    precedent = Math.max(precedent, max(box, axis));
+            }
+            // ties between boxes at the same distance can go either way, so compare positions
+            Cube closest = tree.getClosest(query, axis, true);
+            assertEquals(successor, closest == null ? Integer.MAX_VALUE : min(closest, axis));
+            closest = tree.getClosest(query, axis, false);
+            assertEquals(precedent, closest == null ? Integer.MIN_VALUE : max(closest, axis));
+        }
+    }
+
+    @Test
+    public void matchesBruteForceUnderInsertAndRemove() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 50; trial++) {
+            AABBTree tree = new AABBTree();
+            List<Cube> boxes = new ArrayList<>();
+            for (int op = 0; op < 300; op++) {
+                if (boxes.isEmpty() || random.nextInt(3) > 0) {
+                    Cube box = randomBox(random, 50, 200);
+                    if (boxes.contains(box))
+                        continue;
+                    boxes.add(box);
+                    tree.insert(box);
+                } else {
+                    tree.remove(boxes.remove(random.nextInt(boxes.size())));
+                }
+                assertQueries(tree, boxes, randomBox(random, 80, 200));
+
+                Set<Cube> iterated = new HashSet<>();
+                for (Cube box : tree)
+                    iterated.add(box);
+                assertEquals(new HashSet<>(boxes), iterated);
+                if (op % 50 == 0)
+                    tree = tree.clone();
+            }
+        }
+    }
+
+    @Test
+    public void keepsHandlesUnderRemoveAndUpdate() {
+        Random random = new Random(7);
+        AABBTree tree = new AABBTree();
+        Map<Integer, Cube> live = new HashMap<>();
+        for (int op = 0; op < 20000; op++) {
+            int kind = random.nextInt(4);
+            Cube box = randomBox(random, 50, 300);
+            if (live.isEmpty() || kind < 2) {
+                // handles of live boxes are never reused
+                assertNull(live.put(tree.insert(box), box));
+            } else {
+                List<Integer> handles = new ArrayList<>(live.keySet());
+                int handle = handles.get(random.nextInt(handles.size()));
+                if (kind == 2) {
+                    tree.remove(handle);
+                    live.remove(handle);
+                } else {
+                    tree.update(handle, box);
+                    live.put(handle, box);
+                }
+            }
+            if (op % 500 == 0) {
+                AABBTree clone = tree.clone();
+                for (Map.Entry<Integer, Cube> entry : live.entrySet())
+                    assertSame(entry.getValue(), clone.get(entry.getKey()));
+                assertQueries(clone, live.values(), randomBox(random, 100, 300));
+            }
+        }
+        assertQueries(tree, live.values(), randomBox(random, 100, 300));
+
+        try {
+            tree.remove(-3);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // not a handle
+        }
+    }
+
+    @Test
+    public void buildMatchesBruteForce() {
+        Random random = new Random(3);
+        List<Cube> boxes = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+            boxes.add(randomBox(random, 40, 400));
+        AABBTree tree = AABBTree.build(boxes);
+        // boxes get the handles of their positions
+        for (int i = 0; i < boxes.size(); i++)
+            assertSame(boxes.get(i), tree.get(i));
+        for (int i = 0; i < 200; i++)
+            assertQueries(tree, boxes, randomBox(random, 200, 400));
+
+        // still consistent when modified after the build
+        for (int i = 0; i < 500; i++)
+            tree.remove(i);
+        List<Cube> rest = boxes.subList(500, boxes.size());
+        for (int i = 0; i < 50; i++)
+            assertQueries(tree, rest, randomBox(random, 200, 400));
+    }
+
+    @Test
+    public void visitorsStopAndNest() {
+        Random random = new Random(5);
+        List<Cube> boxes = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+            boxes.add(randomBox(random, 40, 400));
+        AABBTree tree = AABBTree.build(boxes);
+        Cube query = new Cube(200, 200, 200, 100, 100, 100);
+
+        int[] visits = {0};
+        assertFalse(tree.visitOverlapping(query, box -> ++visits[0] < 5));
+        assertEquals(5, visits[0]);
+
+        // queries started by a visitor must not disturb the one running
+        Set<Cube> outer = new HashSet<>();
+        assertTrue(tree.visitOverlapping(query, box -> {
+            outer.add(box);
+            tree.getOverlapping(box);
+            tree.getClosest(box, AABBTree.X, true);
+            return true;
+        }));
+        assertEquals(new HashSet<>(tree.getOverlapping(query)), outer);
+    }
+}
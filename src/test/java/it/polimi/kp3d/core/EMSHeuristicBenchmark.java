@@ -0,0 +1,73 @@
+package it.polimi.kp3d.core;
+
+import it.polimi.kp3d.domain.Item;
+import it.polimi.kp3d.domain.Placement;
+import it.polimi.kp3d.instances.KP3DGenerator;
+import it.polimi.kp3d.instances.KP3DInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of a greedy packing of 64 items on a partially filled container, without and with a minimum
+ * support. Run with the gc profiler to see the bytes allocated per call:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main EMSHeuristicBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EMSHeuristicBenchmark {
+
+    // of the packing measured
+    @Param({"0", "0.75"})
+    private double minSupport;
+
+    private KP3DState state;
+    private Set<Item> batch;
+
+    @Setup
+    public void setup() {
+        KP3DInstance instance = new KP3DGenerator(new Random(1337), 50, 100, 1, 8, 120, 500, 100, 20)
+                .generate(0, 40);
+        state = new KP3DState(instance.getW(), instance.getD(), instance.getH());
+        // fill the container for a while so that there are many spaces, with support in both cases so that the
+        // packings compared start from the same spaces
+        state.setMinSupport(0.75);
+        for (Set<Item> items : instance.getItems().subList(0, 20))
+            for (Placement placement : EMSHeuristic.getPlacements(state, items))
+                state.place(placement);
+        if (minSupport == 0)
+            state.setMinSupport(0);
+        // as many of the following items as a packing takes
+        batch = new HashSet<>();
+        for (Set<Item> items : instance.getItems().subList(20, 40))
+            for (Item item : items)
+                if (batch.size() < 64)
+                    batch.add(item);
+    }
+
+    @Benchmark
+    public List<Placement> getPlacements() {
+        return EMSHeuristic.getPlacements(state, batch);
+    }
+}
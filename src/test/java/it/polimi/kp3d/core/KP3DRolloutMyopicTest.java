@@ -0,0 +1,183 @@
+package it.polimi.kp3d.core;
+
+import it.polimi.algorithm.core.InformationSpace;
+import it.polimi.algorithm.core.InformationSpaceFactory;
+import it.polimi.algorithm.core.RacingAllocator;
+import it.polimi.algorithm.core.ValueFunction;
+import it.polimi.algorithm.domain.State;
+import it.polimi.kp3d.domain.Item;
+import it.polimi.kp3d.domain.Placement;
+import it.polimi.kp3d.instances.KP3DGenerator;
+import it.polimi.kp3d.instances.KP3DInstance;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KP3DRolloutMyopicTest {
+
+    private static final int M = 5;
+
+    /**
+     * Short instances and sample paths, so that a whole simulation takes little time.
+     */
+    private static KP3DGenerator generator(long seed) {
+        return new KP3DGenerator(new Random(seed), 4, 8, 2, 5, 120, 500, 100, 20);
+    }
+
+    private static KP3DInstance instance() {
+        return generator(1).generate(0, 6);
+    }
+
+    /**
+     * Counts the sample paths built from a random stream of the policy.
+     */
+    private static final class CountingSpaceFactory implements InformationSpaceFactory {
+        final InformationSpaceFactory factory = new KP3DRandomSpaceFactory(generator(1338));
+        final AtomicInteger builds = new AtomicInteger();
+
+        @Override
+        public InformationSpace build(State s) {
+            return factory.build(s);
+        }
+
+        @Override
+        public InformationSpace build(State s, Random random) {
+            builds.incrementAndGet();
+            return factory.build(s, random);
+        }
+    }
+
+    private static KP3DRolloutMyopic policy(InformationSpaceFactory informationSpaceFactory) {
+        return new KP3DRolloutMyopic(informationSpaceFactory, new KP3DMyopic(), new KP3dTransitionFunction(),
+                new KP3DRewardFunction(), M, 1338);
+    }
+
+    private static KP3DRolloutMyopic policy() {
+        return policy(new KP3DRandomSpaceFactory(generator(1338)));
+    }
+
+    /**
+     * Packs every batch of the instance with the policy and returns the placements chosen at each epoch.
+     */
+    private static List<List<Placement>> simulate(KP3DRolloutMyopic policy, KP3DInstance instance) {
+        KP3dTransitionFunction transitionFunction = new KP3dTransitionFunction();
+        KP3DState state = new KP3DState(instance.getW(), instance.getD(), instance.getH());
+        List<List<Placement>> choices = new ArrayList<>();
+        for (Set<Item> batch : instance.getItems()) {
+            transitionFunction.postToPre(state, new KP3DInformation(batch));
+            KP3DAction action = (KP3DAction) policy.chooseAction(state);
+            if (action == null)
+                break;
+            choices.add(action.getPlacements());
+            transitionFunction.preToPost(state, action);
+        }
+        return choices;
+    }
+
+    @Test
+    public void choosesTheSameActionsWithAnyNumberOfThreads() {
+        KP3DInstance instance = instance();
+        List<List<Placement>> sequential = simulate(policy(), instance);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            KP3DRolloutMyopic parallel = policy();
+            parallel.setExecutor(pool);
+            assertEquals(sequential, simulate(parallel, instance));
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(instance.getItems().size(), sequential.size());
+    }
+
+    /**
+     * Without common random numbers every rollout builds its own sample path; with them the m paths of an epoch are
+     * built once and shared by all the candidate actions. Either way the choices do not depend on the executor.
+     */
+    @Test
+    public void sharesSamplePathsAcrossActionsWithCommonRandomNumbers() {
+        KP3DInstance instance = instance();
+        for (boolean commonRandomNumbers : new boolean[]{false, true}) {
+            CountingSpaceFactory factory = new CountingSpaceFactory();
+            KP3DRolloutMyopic sequential = policy(factory);
+            sequential.setCommonRandomNumbers(commonRandomNumbers);
+            List<List<Placement>> choices = simulate(sequential, instance);
+            long rollouts = sequential.getRolloutsSpent();
+            assertTrue(rollouts > (long) M * choices.size());
+            assertEquals(commonRandomNumbers ? M * choices.size() : rollouts, factory.builds.get());
+
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                KP3DRolloutMyopic parallel = policy();
+                parallel.setCommonRandomNumbers(commonRandomNumbers);
+                parallel.setExecutor(pool);
+                assertEquals(choices, simulate(parallel, instance));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Racing spends at most the m rollouts per candidate action of the fixed allocation in every epoch, and still
+     * chooses an action. The leader is never dropped, see RacingAllocatorTest.
+     */
+    @Test
+    public void racingStaysWithinTheBudget() {
+        KP3DInstance instance = instance();
+        KP3DRolloutMyopic policy = policy();
+        policy.setRacingAllocator(new RacingAllocator(2, 4 * M, 2.0));
+        KP3dTransitionFunction transitionFunction = new KP3dTransitionFunction();
+        KP3DState state = new KP3DState(instance.getW(), instance.getD(), instance.getH());
+        long spent = 0;
+        for (Set<Item> batch : instance.getItems()) {
+            transitionFunction.postToPre(state, new KP3DInformation(batch));
+            long budget = (long) policy.getPossibleActions(state).size() * M;
+            KP3DAction action = (KP3DAction) policy.chooseAction(state);
+            assertNotNull(action);
+            long rollouts = policy.getRolloutsSpent() - spent;
+            assertTrue(rollouts <= budget);
+            spent = policy.getRolloutsSpent();
+            transitionFunction.preToPost(state, action);
+        }
+        assertTrue(spent > 0);
+    }
+
+    /**
+     * With a horizon the rollouts stop after that many decisions of the base policy and add the terminal value. A
+     * terminal value that only rewards free volume outweighs the rewards, so the policy then packs nothing.
+     */
+    @Test
+    public void usesTheTerminalValueAtTheHorizon() {
+        KP3DInstance instance = instance();
+        KP3dTransitionFunction transitionFunction = new KP3dTransitionFunction();
+        KP3DState state = new KP3DState(instance.getW(), instance.getD(), instance.getH());
+        transitionFunction.postToPre(state, new KP3DInformation(instance.getItems().get(0)));
+        long binVolume = (long) state.getW() * state.getD() * state.getH();
+
+        KP3DRolloutMyopic untruncated = policy();
+        untruncated.setCommonRandomNumbers(true);
+        assertFalse(((KP3DAction) untruncated.chooseAction(state)).getPlacements().isEmpty());
+
+        int horizon = 2;
+        AtomicInteger calls = new AtomicInteger();
+        ValueFunction freeVolume = s -> {
+            KP3DState reached = (KP3DState) s;
+            assertEquals(state.getNumBatches() + horizon, reached.getNumBatches());
+            calls.incrementAndGet();
+            return binVolume - reached.getPackedVolume();
+        };
+        KP3DRolloutMyopic truncated = policy();
+        truncated.setCommonRandomNumbers(true);
+        truncated.setHorizon(horizon, freeVolume);
+        assertTrue(((KP3DAction) truncated.chooseAction(state)).getPlacements().isEmpty());
+        assertTrue(calls.get() > 0);
+    }
+}
@@ -0,0 +1,66 @@
+package it.polimi.kp3d.core;
+
+import it.polimi.kp3d.domain.Cube;
+import it.polimi.kp3d.domain.Item;
+import it.polimi.kp3d.instances.KP3DGenerator;
+import it.polimi.kp3d.instances.KP3DInstance;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class KP3DStateTest {
+
+    private static Set<Cube> placedCubes(KP3DState state) {
+        Set<Cube> cubes = new HashSet<>();
+        for (Cube cube : state.placedCubes())
+            cubes.add(cube);
+        return cubes;
+    }
+
+    /**
+     * Every batch is first observed and packed under a checkpoint and rolled back, which must restore the hash and
+     * the placed cubes, and then observed and packed for good.
+     */
+    @Test
+    public void rollbackRestoresPlacedCubesAndHash() {
+        KP3dTransitionFunction transitionFunction = new KP3dTransitionFunction();
+        KP3DMyopic policy = new KP3DMyopic();
+        int rolledBack = 0;
+        for (int seed = 0; seed < 10; seed++) {
+            KP3DInstance instance = new KP3DGenerator(new Random(seed), 50, 100, 1, 8, 120, 500, 100, 20)
+                    .generate(0, 30);
+            KP3DState state = new KP3DState(instance.getW(), instance.getD(), instance.getH());
+            state.setMinSupport(0.75);
+            for (Set<Item> batch : instance.getItems()) {
+                long hash = state.getZobristHash();
+                Set<Cube> cubes = placedCubes(state);
+                KP3DState copy = (KP3DState) state.clone();
+
+                int checkpoint = state.checkpoint();
+                transitionFunction.postToPre(state, new KP3DInformation(batch));
+                KP3DAction action = (KP3DAction) policy.chooseAction(state);
+                transitionFunction.preToPost(state, action);
+                rolledBack += action.getPlacements().size();
+                state.rollback(checkpoint);
+
+                assertEquals(hash, state.getZobristHash());
+                assertEquals(cubes, placedCubes(state));
+                // the copy shared the placed cubes and must not have seen any of it
+                assertEquals(hash, copy.getZobristHash());
+                assertEquals(cubes, placedCubes(copy));
+
+                transitionFunction.postToPre(state, new KP3DInformation(batch));
+                List<?> placements = ((KP3DAction) policy.chooseAction(state)).getPlacements();
+                assertEquals(action.getPlacements(), placements);
+                transitionFunction.preToPost(state, action);
+                assertEquals(cubes.size() + placements.size(), placedCubes(state).size());
+            }
+        }
+        assertTrue(rolledBack > 0);
+    }
+}
@@ -0,0 +1,148 @@
+package it.polimi.kp3d.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class ItemSetTest {
+
+    private static Item item(int id) {
+        return new Item(id, id, 1, 1, 1);
+    }
+
+    private static void assertMatches(TreeMap<Integer, Item> expected, ItemSet actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty() ? -1 : (int) expected.lastKey(), actual.maxId());
+        // iterated by increasing id
+        assertEquals(new ArrayList<>(expected.values()), new ArrayList<>(actual));
+        assertEquals(new HashSet<>(expected.values()), actual);
+        assertEquals(new HashSet<>(expected.values()).hashCode(), actual.hashCode());
+    }
+
+    @Test
+    public void matchesReferenceOnRandomOperations() {
+        Random random = new Random(1);
+        ItemSet set = new ItemSet();
+        TreeMap<Integer, Item> expected = new TreeMap<>();
+        for (int step = 0; step < 20000; step++) {
+            int id = random.nextInt(200);
+            Item item = item(id);
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    assertEquals(expected.putIfAbsent(id, item) == null, set.add(item));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(id) != null, set.remove(item));
+                    break;
+                default:
+                    assertEquals(expected.containsKey(id), set.contains(item));
+                    assertEquals(expected.containsKey(id), set.containsId(id));
+                    assertEquals(expected.get(id), set.get(id));
+            }
+            if (step % 1000 == 0)
+                assertMatches(expected, set);
+        }
+        assertMatches(expected, set);
+        assertFalse(set.contains("not an item"));
+        assertFalse(set.remove("not an item"));
+    }
+
+    @Test
+    public void mergesOtherItemSets() {
+        Random random = new Random(2);
+        for (int round = 0; round < 200; round++) {
+            ItemSet a = new ItemSet(), b = new ItemSet();
+            TreeMap<Integer, Item> expectedA = new TreeMap<>(), expectedB = new TreeMap<>();
+            int offset = random.nextBoolean() ? 0 : 100;
+            for (int i = random.nextInt(30); i > 0; i--) {
+                Item item = item(random.nextInt(100));
+                a.add(item);
+                expectedA.put(item.getId(), item);
+            }
+            for (int i = random.nextInt(30); i > 0; i--) {
+                Item item = item(offset + random.nextInt(100));
+                b.add(item);
+                expectedB.put(item.getId(), item);
+            }
+
+            ItemSet union = a.copy();
+            TreeMap<Integer, Item> expectedUnion = new TreeMap<>(expectedA);
+            expectedUnion.putAll(expectedB);
+            assertEquals(expectedUnion.size() != expectedA.size(), union.addAll(b));
+            assertMatches(expectedUnion, union);
+
+            ItemSet difference = a.copy();
+            TreeMap<Integer, Item> expectedDifference = new TreeMap<>(expectedA);
+            expectedDifference.keySet().removeAll(expectedB.keySet());
+            assertEquals(expectedDifference.size() != expectedA.size(), difference.removeAll(b));
+            assertMatches(expectedDifference, difference);
+
+            // the copies did not touch the originals
+            assertMatches(expectedA, a);
+            assertMatches(expectedB, b);
+        }
+    }
+
+    @Test
+    public void removesThroughIterator() {
+        ItemSet set = new ItemSet();
+        TreeMap<Integer, Item> expected = new TreeMap<>();
+        for (int id = 0; id < 100; id++) {
+            set.add(item(id));
+            expected.put(id, item(id));
+        }
+
+        assertTrue(set.removeIf(item -> item.getId() % 3 == 0));
+        expected.keySet().removeIf(id -> id % 3 == 0);
+        assertMatches(expected, set);
+
+        Set<Item> kept = new HashSet<>();
+        for (int id = 0; id < 100; id += 2)
+            kept.add(item(id));
+        assertTrue(set.retainAll(kept));
+        expected.values().retainAll(kept);
+        assertMatches(expected, set);
+
+        Iterator<Item> it = set.iterator();
+        try {
+            it.remove();
+            fail();
+        } catch (IllegalStateException e) {
+            // nothing returned yet
+        }
+        while (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        assertTrue(set.isEmpty());
+        assertEquals(-1, set.maxId());
+    }
+
+    @Test
+    public void buildsFromCollections() {
+        List<Item> items = new ArrayList<>();
+        for (int id = 50; id >= 0; id -= 5)
+            items.add(item(id));
+        ItemSet set = new ItemSet(items);
+        assertEquals(new HashSet<>(items), set);
+        assertEquals(50, set.maxId());
+        assertEquals(set, new ItemSet(set));
+
+        ItemSet sized = new ItemSet(1000);
+        assertTrue(sized.isEmpty());
+        sized.addAll(items);
+        assertEquals(set, sized);
+        sized.clear();
+        assertTrue(sized.isEmpty());
+        assertFalse(set.isEmpty());
+    }
+}